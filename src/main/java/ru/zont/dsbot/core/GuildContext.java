@@ -6,45 +6,53 @@ import net.dv8tion.jda.api.interactions.commands.build.CommandData;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ru.zont.dsbot.core.commands.SlashCommandAdapter;
+import ru.zont.dsbot.core.commands.CommandRegistry;
+import ru.zont.dsbot.core.commands.CommandResolver;
 import ru.zont.dsbot.core.config.ZDSBContextConfig;
 import ru.zont.dsbot.core.commands.CommandAdapter;
+import ru.zont.dsbot.core.commands.CommandListener;
 import ru.zont.dsbot.core.config.ZDSBBotConfig;
 import ru.zont.dsbot.core.listeners.GuildListenerAdapter;
+import ru.zont.dsbot.core.listeners.ListenerIndex;
+import ru.zont.dsbot.core.util.InstanceStore;
 import ru.zont.dsbot.core.util.LiteJSON;
 import ru.zont.dsbot.core.util.Reflect;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Supplier;
 
-import static ru.zont.dsbot.core.ZDSBot.isCommandExcluded;
-
 public class GuildContext {
     private static final Logger log = LoggerFactory.getLogger(GuildContext.class);
-    private static final HashMap<String, HashMap<String, Object>> storage = new HashMap<>();
+    private static final InstanceStore globalInstances = new InstanceStore();
 
     private final ZDSBot bot;
     private final String guildId;
+    private final long guildIdLong;
     private final String guildName;
 
-    private final HashMap<String, CommandAdapter> commands = new HashMap<>();
+    private HashMap<String, CommandAdapter> commands;
+    private CommandResolver commandResolver;
     private final LinkedList<GuildListenerAdapter> listeners = new LinkedList<>();
+    private final ListenerIndex listenerIndex = new ListenerIndex();
     private final ErrorReporter errorReporter;
-    private final HashSet<String> foreignBannedCommands;
-    private final HashSet<String> guildsBannedCommands;
+    private final boolean foreign;
+    private final InstanceStore instances = new InstanceStore();
+    private volatile boolean disposed = false;
 
     public GuildContext(ZDSBot bot, Guild guild) {
         this.bot = bot;
         guildId = guild.getId();
+        guildIdLong = guild.getIdLong();
         guildName = guild.getName();
 
-        guildsBannedCommands = new HashSet<>();
-        foreignBannedCommands = new HashSet<>();
+        foreign = !bot.getConfig().isApprovedGuild(guildIdLong);
 
         initCommandAdapters();
         initGuildListeners(bot);
@@ -53,66 +61,28 @@ public class GuildContext {
     }
 
     public static <T> T getInstanceGlobal(Class<T> clazz, Supplier<T> newInstance) {
-        return getInstance(clazz.getName(), newInstance, null);
+        return globalInstances.get(clazz, newInstance);
     }
 
     public static <T> T getInstanceGlobal(String id, Supplier<T> newInstance) {
-        return getInstance(id, newInstance, null);
+        return globalInstances.get(id, newInstance);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * @param context guild whose instance to get, or {@code null} for a global one
+     */
     public static <T> T getInstance(String id, Supplier<T> newInstance, @Nullable GuildContext context) {
-        HashMap<String, Object> map = storage.getOrDefault(id, null);
-        if (map == null) {
-            map = new HashMap<>();
-            storage.put(id, map);
-        }
-
-        final String guildId = context != null ? context.getGuildId() : "GLOBAL";
-        T instance = (T) map.getOrDefault(guildId, null);
-        if (instance == null) {
-            instance = newInstance.get();
-            if (instance == null) return null;
-            map.put(guildId, instance);
-        }
-        return instance;
+        return context != null ? context.getInstance(id, newInstance) : getInstanceGlobal(id, newInstance);
     }
 
     private void initCommandAdapters() {
-        final LinkedList<SlashCommandData> slashCommands = new LinkedList<>();
-
-        ZDSBBotConfig cfg = getBot().getConfig();
-        List<String> excludedByConfig = cfg.excludedCommands.toList();
-
-        for (Class<? extends CommandAdapter> klass : bot.getCommandAdapters()) {
-            if (isCommandExcluded(cfg, excludedByConfig, klass)) continue;
-
-            final CommandAdapter instance = Reflect.commonsNewInstance(klass,
-                    "Cannot instantiate Command " + klass.getName(),
-                    bot, this);
-
-            if (!instance.allowGuilds()) {
-                guildsBannedCommands.add(instance.getName());
-                guildsBannedCommands.addAll(instance.getAliases());
-                if (!(instance instanceof SlashCommandAdapter))
-                    continue;
-            }
-
-            if (!instance.allowForeignGuilds() && !bot.getConfig().getApprovedGuilds().contains(guildId)) {
-                foreignBannedCommands.add(instance.getName());
-                foreignBannedCommands.addAll(instance.getAliases());
-                continue;
-            }
+        final CommandRegistry.CommandSet commandSet = bot.getCommandRegistry().forGuild(this, foreign);
+        commands = new HashMap<>(commandSet.commands());
+        commandResolver = commandSet.resolver();
 
-            if (instance instanceof SlashCommandAdapter sca)
-                if (!sca.isGlobal())
-                    slashCommands.add(sca.getSlashCommand());
-
-            log.info(formatLog( "Command instantiated: %s", instance.getClass().getName()));
-            commands.put(instance.getName(), instance);
-        }
-
-        log.info(formatLog("Slash commands: {}"), slashCommands.stream().map(CommandData::getName).toList());
+        final List<SlashCommandData> slashCommands = commandSet.slashCommands();
+        log.info(formatLog("Commands: %d, slash commands: %s",
+                commands.size(), slashCommands.stream().map(CommandData::getName).toList()));
         getGuild().updateCommands().addCommands(slashCommands).queue();
     }
 
@@ -129,7 +99,7 @@ public class GuildContext {
             log.info(formatLog( "GuildListener instantiated: %s", instance.getClass().getName()));
             listeners.add(instance);
         }
-        GuildListenerAdapter.initAllListeners(listeners, bot.getJda()::addEventListener);
+        GuildListenerAdapter.initAllListeners(listeners, this::activateListener);
     }
 
     @SuppressWarnings("unchecked")
@@ -172,6 +142,10 @@ public class GuildContext {
         return guildId;
     }
 
+    public long getGuildIdLong() {
+        return guildIdLong;
+    }
+
     public String getGuildName() {
         return guildName;
     }
@@ -188,19 +162,116 @@ public class GuildContext {
         return bot.getGlobalConfig();
     }
 
+    /**
+     * @return map of commands available in this guild, owned by this context. Instances without
+     * {@link CommandAdapter#hasGuildState()} are shared between guilds.
+     */
     public HashMap<String, CommandAdapter> getCommands() {
         return commands;
     }
 
+    public CommandResolver getCommandResolver() {
+        return commandResolver;
+    }
+
     public LinkedList<GuildListenerAdapter> getListeners() {
         return listeners;
     }
 
+    /**
+     * @return listeners that passed {@link GuildListenerAdapter#init(Guild)} and receive this guild's events
+     * from {@link ru.zont.dsbot.core.listeners.EventRouter}
+     */
+    public List<GuildListenerAdapter> getActiveListeners() {
+        return listenerIndex.getListeners();
+    }
+
+    public ListenerIndex getListenerIndex() {
+        return listenerIndex;
+    }
+
+    /**
+     * Start delivering events to the listener. Listeners that finish their init after the context is disposed
+     * are disposed instead.
+     */
+    public void activateListener(GuildListenerAdapter listener) {
+        if (listener.getContext() != this)
+            throw new IllegalArgumentException("Listener belongs to another context: " + listener.getClass().getName());
+        synchronized (listenerIndex) {
+            if (!disposed) {
+                bot.getEventRouter().addListener(listener);
+                return;
+            }
+        }
+        disposeListener(listener);
+    }
+
+    /**
+     * @return this guild's instance of the class, created once by {@code newInstance}
+     */
     public <T> T getInstance(Class<T> clazz, Supplier<T> newInstance) {
-        return getInstance(clazz.getName(), newInstance, this);
+        return instances.get(clazz, newInstance);
     }
+
     public <T> T getInstance(String id, Supplier<T> newInstance) {
-        return getInstance(id, newInstance, this);
+        return instances.get(id, newInstance);
+    }
+
+    /**
+     * @return number of instances stored for this guild with {@link #getInstance(Class, Supplier)}
+     */
+    public int getInstanceCount() {
+        return instances.size();
+    }
+
+    /**
+     * Called when the bot leaves the guild. Detaches and {@link GuildListenerAdapter#dispose() disposes} listeners,
+     * both the ones from {@link #getListeners()} and the ones activated by the bot itself, such as
+     * the {@link CommandListener}, then releases instances of this guild, closing {@link AutoCloseable} ones.
+     */
+    public void dispose() {
+        synchronized (listenerIndex) {
+            if (disposed) return;
+            disposed = true;
+        }
+        final Set<GuildListenerAdapter> disposing = Collections.newSetFromMap(new IdentityHashMap<>());
+        disposing.addAll(listenerIndex.clear());
+        disposing.addAll(listeners);
+        for (GuildListenerAdapter listener: disposing)
+            disposeListener(listener);
+        instances.release();
+        log.info(formatLog("GuildContext disposed"));
+    }
+
+    private void disposeListener(GuildListenerAdapter listener) {
+        try {
+            listener.dispose();
+        } catch (Exception e) {
+            log.error(formatLog("Cannot dispose GuildListener %s", listener.getClass().getName()), e);
+        }
+    }
+
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    /**
+     * @return listener that handles commands of this guild, with its counters of rejected and dispatched messages
+     */
+    @Nullable
+    public CommandListener getCommandListener() {
+        for (GuildListenerAdapter listener: getActiveListeners())
+            if (listener instanceof CommandListener commandListener)
+                return commandListener;
+        return null;
+    }
+
+    /**
+     * @return count of this guild's commands that are queued or running, if {@link ZDSBBotConfig#asyncCommands} is on
+     */
+    public int getCommandQueueDepth() {
+        if (!getBot().getConfig().doAsyncCommands()) return 0;
+        return getBot().getCommandExecutor().getQueueDepth(getGuildId());
     }
 
     public LiteJSON getLJInstance(String name) {
@@ -252,14 +323,14 @@ public class GuildContext {
     }
 
     public boolean isForeign() {
-        return !getBot().getConfig().getApprovedGuilds().contains(getGuildId());
+        return !getBot().getConfig().isApprovedGuild(guildIdLong);
     }
 
     public boolean isGuildBannedCommand(String commandCall) {
-        return guildsBannedCommands.contains(commandCall);
+        return bot.getCommandRegistry().getGuildsBannedCommands().contains(commandCall);
     }
 
     public boolean isForeignBannedCommand(String commandCall) {
-        return foreignBannedCommands.contains(commandCall);
+        return foreign && bot.getCommandRegistry().getForeignBannedCommands().contains(commandCall);
     }
 }
@@ -10,13 +10,18 @@ import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.zont.dsbot.core.commands.CommandAdapter;
+import ru.zont.dsbot.core.commands.CommandExecution;
+import ru.zont.dsbot.core.commands.KeyedCommandExecutor;
 import ru.zont.dsbot.core.commands.CommandListener;
+import ru.zont.dsbot.core.commands.CommandRegistry;
+import ru.zont.dsbot.core.commands.CommandResolver;
 import ru.zont.dsbot.core.commands.SlashCommandAdapter;
 import ru.zont.dsbot.core.commands.impl.execution.ExecBase;
 import ru.zont.dsbot.core.config.ZDSBContextConfig;
 import ru.zont.dsbot.core.config.ZDSBBotConfig;
 import ru.zont.dsbot.core.config.ZDSBConfigManager;
 import ru.zont.dsbot.core.executil.ExecutionManager;
+import ru.zont.dsbot.core.listeners.EventRouter;
 import ru.zont.dsbot.core.listeners.GuildListenerAdapter;
 import ru.zont.dsbot.core.listeners.GuildReadyListener;
 import ru.zont.dsbot.core.util.DBConnectionHandler;
@@ -25,7 +30,11 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.security.auth.login.LoginException;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class ZDSBot {
     private static final Logger log = LoggerFactory.getLogger(ZDSBot.class);
@@ -35,7 +44,8 @@ public class ZDSBot {
     private final String coreVersion;
     private final JDA jda;
     private final ZDSBConfigManager<? extends ZDSBContextConfig, ? extends ZDSBBotConfig> configManager;
-    private final HashMap<String, GuildContext> contextStore;
+    private final ConcurrentHashMap<String, GuildContext> contextStore;
+    private final EventRouter eventRouter;
     private final ArrayList<Class<? extends CommandAdapter>> commandAdapters;
     private final ArrayList<Class<? extends GuildListenerAdapter>> guildListeners;
     private final String botVersion;
@@ -43,12 +53,15 @@ public class ZDSBot {
     private final ErrorReporter errorReporter;
 
     private final HashMap<String, CommandAdapter> commandsGlobal;
+    private final CommandResolver commandResolverGlobal;
     private final ArrayList<GuildListenerAdapter> guildListenersGlobal;
 
     private final ExecutionManager executionManager;
     private final HashSet<String> globalBannedCommands;
 
-    private DBConnectionHandler dbConnectionHandler = null;
+    private volatile DBConnectionHandler dbConnectionHandler = null;
+    private volatile KeyedCommandExecutor commandExecutor = null;
+    private volatile CommandRegistry commandRegistry = null;
     private final LinkedList<SlashCommandData> globalSlashCommands;
 
     public ZDSBot(JDABuilder jdaBuilder,
@@ -69,7 +82,8 @@ public class ZDSBot {
         this.guildListeners = guildListeners;
         this.botVersion = botVersion;
         coreVersion = loadCoreVersion();
-        contextStore = new HashMap<>();
+        contextStore = new ConcurrentHashMap<>();
+        eventRouter = new EventRouter(this);
         globalSlashCommands = new LinkedList<>();
 
         botNameLong = "%s%s (ZDSBot v.%s)".formatted(
@@ -79,12 +93,13 @@ public class ZDSBot {
 
         initConfigManager();
 
-        jdaBuilder.addEventListeners(new GuildReadyListener(this));
+        jdaBuilder.addEventListeners(new GuildReadyListener(this), eventRouter);
         jda = jdaBuilder.build();
 
         globalBannedCommands = new HashSet<>();
         commandsGlobal = new HashMap<>();
         initGlobalCommandAdapters();
+        commandResolverGlobal = CommandResolver.build(commandsGlobal);
 
         guildListenersGlobal = new ArrayList<>(this.guildListeners.size());
         initGlobalGuildListeners(guildListeners);
@@ -118,31 +133,17 @@ public class ZDSBot {
     }
 
     private void initGlobalCommandAdapters() {
-        ZDSBBotConfig cfg = getConfig();
-        List<String> excludedByConfig = cfg.excludedCommands.toList();
-
-        for (Class<? extends CommandAdapter> klass : this.commandAdapters) {
-            final CommandAdapter instance;
-            try {
-                if (isCommandExcluded(cfg, excludedByConfig, klass)) continue;
-
-                var constructor = klass.getDeclaredConstructor(ZDSBot.class, GuildContext.class);
-                instance = constructor.newInstance(this, null);
-
-                if (!instance.allowGlobal()) {
-                    globalBannedCommands.add(instance.getName());
-                    globalBannedCommands.addAll(instance.getAliases());
-                    continue;
-                }
+        for (CommandRegistry.Entry entry : getCommandRegistry().getEntries()) {
+            final CommandAdapter instance = entry.shared();
+            if (!entry.allowGlobal()) {
+                globalBannedCommands.addAll(entry.callNames());
+                continue;
+            }
 
-                if (instance instanceof SlashCommandAdapter sca)
-                    globalSlashCommands.add(sca.getSlashCommand());
+            if (instance instanceof SlashCommandAdapter sca)
+                globalSlashCommands.add(sca.getSlashCommand());
 
-                log.info(formatLog(null, "Command instantiated: %s", klass.getName()));
-                commandsGlobal.put(instance.getName(), instance);
-            } catch (Exception e) {
-                throw new RuntimeException("Cannot instantiate Command " + klass.getName(), e);
-            }
+            commandsGlobal.put(entry.name(), instance);
         }
     }
 
@@ -162,10 +163,14 @@ public class ZDSBot {
                 throw new RuntimeException("Cannot instantiate GuildListener " + klass.getName(), e);
             }
         }
-        GuildListenerAdapter.initAllListeners(guildListenersGlobal, getJda()::addEventListener);
+        GuildListenerAdapter.initAllListeners(guildListenersGlobal, eventRouter::addListener);
     }
 
     public static boolean isCommandExcluded(ZDSBBotConfig cfg, List<String> excludedByConfig, Class<? extends CommandAdapter> klass) {
+        return isCommandExcluded(cfg, (Collection<String>) excludedByConfig, klass);
+    }
+
+    public static boolean isCommandExcluded(ZDSBBotConfig cfg, Collection<String> excludedByConfig, Class<? extends CommandAdapter> klass) {
         if (ExecBase.class.isAssignableFrom(klass) && !cfg.allowExecution.isTrue()) {
             log.info("Execution command not allowed by config: {}", klass.getName());
             return true;
@@ -232,6 +237,10 @@ public class ZDSBot {
         return botNameLong;
     }
 
+    public EventRouter getEventRouter() {
+        return eventRouter;
+    }
+
     public JDA getJda() {
         return jda;
     }
@@ -252,7 +261,8 @@ public class ZDSBot {
     }
 
     public final GuildContext getGuildContext(String guildId) {
-        return contextStore.getOrDefault(guildId, null);
+        if (guildId == null) return null;
+        return contextStore.get(guildId);
     }
 
     public final LinkedList<GuildContext> getGuildContexts() {
@@ -265,13 +275,23 @@ public class ZDSBot {
         boolean notExist = !contextStore.containsKey(id);
         if (notExist) {
             context = new GuildContext(this, guild);
-            getJda().addEventListener(new CommandListener(context));
+            context.activateListener(new CommandListener(context));
             contextStore.put(id, context);
         } else context = contextStore.get(id);
 
         context.update(guild, notExist);
     }
 
+    /**
+     * Drop the context of a guild the bot has left, disposing its listeners and instances
+     */
+    public void removeGuildContext(String guildId) {
+        final GuildContext context = contextStore.remove(guildId);
+        if (context != null) context.dispose();
+        final KeyedCommandExecutor executor = commandExecutor;
+        if (executor != null) executor.removeGuild(guildId);
+    }
+
     public MessageChannel findChannelById(String id) {
         if (id == null) return null;
         id = id.trim();
@@ -313,6 +333,38 @@ public class ZDSBot {
         return errorReporter;
     }
 
+    /**
+     * Built on first access: either here in the constructor, or by the first {@link GuildContext} if its
+     * {@link net.dv8tion.jda.api.events.guild.GuildReadyEvent} comes earlier.
+     */
+    public CommandRegistry getCommandRegistry() {
+        CommandRegistry registry = commandRegistry;
+        if (registry != null) return registry;
+        synchronized (this) {
+            if (commandRegistry == null)
+                commandRegistry = new CommandRegistry(this, commandAdapters);
+            return commandRegistry;
+        }
+    }
+
+    public KeyedCommandExecutor getCommandExecutor() {
+        KeyedCommandExecutor executor = commandExecutor;
+        if (executor != null) return executor;
+        synchronized (this) {
+            if (commandExecutor == null) {
+                final ZDSBBotConfig cfg = getConfig();
+                final int workersCount = cfg.commandWorkers.getInt();
+                final Executor workers = workersCount > 0
+                        ? Executors.newFixedThreadPool(workersCount, CommandExecution.daemonThreadFactory("Command"))
+                        : CommandExecution.newPerTaskExecutor();
+                commandExecutor = new KeyedCommandExecutor(workers,
+                        cfg.commandQueueLimit.getInt(),
+                        KeyedCommandExecutor.OverflowPolicy.parse(cfg.commandQueueOverflow.getValue()));
+            }
+            return commandExecutor;
+        }
+    }
+
     public ExecutionManager getExecutionManager() {
         return executionManager;
     }
@@ -332,6 +384,10 @@ public class ZDSBot {
         return commandsGlobal;
     }
 
+    public CommandResolver getCommandResolverGlobal() {
+        return commandResolverGlobal;
+    }
+
     public ArrayList<GuildListenerAdapter> getGuildListenersGlobal() {
         return guildListenersGlobal;
     }
@@ -340,8 +396,23 @@ public class ZDSBot {
         return globalBannedCommands.contains(commandName);
     }
 
+    /**
+     * Open a connection pool sized by {@link ZDSBBotConfig#dbPoolMinSize} and {@link ZDSBBotConfig#dbPoolMaxSize},
+     * with {@link ZDSBBotConfig#dbStatementCacheSize} statements cached per connection, closing the previous one.
+     * Queued writes of the previous pool are executed before it is closed, and those of the current one
+     * on JVM shutdown.
+     */
     public void setDbConnection(String conString) throws SQLException {
-        dbConnectionHandler = new DBConnectionHandler(conString);
+        final ZDSBBotConfig cfg = getConfig();
+        final DBConnectionHandler.Settings settings = DBConnectionHandler.Settings.DEFAULT
+                .withSize(cfg.dbPoolMinSize.getInt(), cfg.dbPoolMaxSize.getInt())
+                .withBorrowTimeout(Duration.ofSeconds(cfg.dbBorrowTimeoutSeconds.getInt()))
+                .withStatementCacheSize(cfg.dbStatementCacheSize.getInt())
+                .withBatch(new DBConnectionHandler.BatchSettings(cfg.dbWriteBatchSize.getInt(),
+                        Duration.ofMillis(cfg.dbWriteFlushIntervalMs.getLong()), cfg.dbWriteQueueCapacity.getInt()));
+        final DBConnectionHandler previous = dbConnectionHandler;
+        dbConnectionHandler = new DBConnectionHandler(conString, settings);
+        if (previous != null) previous.close();
     }
 
     public DBConnectionHandler getDbConnectionHandler() {
@@ -1,6 +1,6 @@
 package ru.zont.dsbot.core.commands;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ArgumentTokenizer {
@@ -9,112 +9,132 @@ public class ArgumentTokenizer {
     private static final int STATE_SINGLE_QUOTE = 2;
     private static final int STATE_DOUBLE_QUOTE = 3;
 
+    /**
+     * Argument with its position in the source string.
+     * {@code start} and {@code end} enclose the characters the value came from, excluding surrounding quotes.
+     */
+    public record Token(String value, int start, int end) { }
+
     public static List<String> tokenize(String arguments) {
         return tokenize(arguments, false);
     }
 
     public static List<String> tokenize(String arguments, boolean stringify) {
-        LinkedList<String> argList = new LinkedList<>();
-        StringBuilder currArg = new StringBuilder();
-        boolean escaped = false;
+        final List<Token> tokens = lex(arguments, 0);
+        final ArrayList<String> argList = new ArrayList<>(tokens.size());
+        for (Token token: tokens)
+            argList.add(stringify ? "\"" + escapeQuotesAndBackslashes(token.value()) + "\"" : token.value());
+        return argList;
+    }
+
+    /**
+     * Split {@code source} into arguments starting from {@code from}, in a single pass.
+     * Offsets of returned tokens are relative to the whole {@code source}.
+     */
+    public static List<Token> lex(String source, int from) {
+        final ArrayList<Token> tokens = new ArrayList<>();
+        final StringBuilder currArg = new StringBuilder();
         int state = STATE_NO_TOKEN;
-        int len = arguments.length();
-        for (int i = 0; i < len; i++) {
-            char c = arguments.charAt(i);
-            if (escaped) {
-                escaped = false;
-                currArg.append(c);
-            } else {
-                switch (state) {
-                    case STATE_SINGLE_QUOTE:
-                        if (c == '\'') {
-                            state = STATE_NORMAL_TOKEN;
-                        } else {
-                            currArg.append(c);
-                        }
-                        break;
-                    case STATE_DOUBLE_QUOTE:
-                        if (c == '"') {
-                            state = STATE_NORMAL_TOKEN;
-                        } else if (c == '\\') {
+        int start = -1;
+        int end = -1;
+        final int len = source.length();
+
+        for (int i = from; i < len; i++) {
+            final char c = source.charAt(i);
+            switch (state) {
+                case STATE_SINGLE_QUOTE:
+                    if (c == '\'') {
+                        state = STATE_NORMAL_TOKEN;
+                    } else {
+                        if (start < 0) start = i;
+                        currArg.append(c);
+                        end = i + 1;
+                    }
+                    break;
+                case STATE_DOUBLE_QUOTE:
+                    if (c == '"') {
+                        state = STATE_NORMAL_TOKEN;
+                    } else {
+                        if (start < 0) start = i;
+                        if (c == '\\' && i + 1 < len) {
                             i++;
-                            char next = arguments.charAt(i);
-                            if (next == '"' || next == '\\') {
-                                currArg.append(next);
-                            } else {
+                            char next = source.charAt(i);
+                            if (next != '"' && next != '\\')
                                 currArg.append(c);
-                                currArg.append(next);
-                            }
+                            currArg.append(next);
                         } else {
                             currArg.append(c);
                         }
-                        break;
-                    case STATE_NO_TOKEN:
-                    case STATE_NORMAL_TOKEN:
-                        switch (c) {
-                            case '\\':
-                                escaped = true;
+                        end = i + 1;
+                    }
+                    break;
+                case STATE_NO_TOKEN:
+                case STATE_NORMAL_TOKEN:
+                    switch (c) {
+                        case '\\':
+                            if (start < 0) start = i;
+                            state = STATE_NORMAL_TOKEN;
+                            if (i + 1 < len) i++;
+                            currArg.append(source.charAt(i));
+                            end = i + 1;
+                            break;
+                        case '\'':
+                            state = STATE_SINGLE_QUOTE;
+                            break;
+                        case '"':
+                            state = STATE_DOUBLE_QUOTE;
+                            break;
+                        default:
+                            if (!Character.isWhitespace(c)) {
+                                if (start < 0) start = i;
+                                currArg.append(c);
+                                end = i + 1;
                                 state = STATE_NORMAL_TOKEN;
-                                break;
-                            case '\'':
-                                state = STATE_SINGLE_QUOTE;
-                                break;
-                            case '"':
-                                state = STATE_DOUBLE_QUOTE;
-                                break;
-                            default:
-                                if (!Character.isWhitespace(c)) {
-                                    currArg.append(c);
-                                    state = STATE_NORMAL_TOKEN;
-                                } else if (state == STATE_NORMAL_TOKEN) {
-                                    // Whitespace ends the token; start a new one
-                                    argList.add(currArg.toString());
-                                    currArg = new StringBuilder();
-                                    state = STATE_NO_TOKEN;
-                                }
-                        }
-                        break;
-                    default:
-                        throw new IllegalStateException("ArgumentTokenizer state " + state + " is invalid!");
-                }
+                            } else if (state == STATE_NORMAL_TOKEN) {
+                                // Whitespace ends the token; start a new one
+                                tokens.add(newToken(currArg, start, end, i));
+                                currArg.setLength(0);
+                                start = end = -1;
+                                state = STATE_NO_TOKEN;
+                            }
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("ArgumentTokenizer state " + state + " is invalid!");
             }
         }
-        if (escaped) {
-            currArg.append('\\');
-            argList.add(currArg.toString());
-        } else if (state != STATE_NO_TOKEN) {
-            argList.add(currArg.toString());
-        }
-        if (stringify) {
-            argList.replaceAll(s -> "\"" + escapeQuotesAndBackslashes(s) + "\"");
-        }
-        return argList;
+        if (state != STATE_NO_TOKEN)
+            tokens.add(newToken(currArg, start, end, len));
+        return tokens;
+    }
+
+    private static Token newToken(StringBuilder value, int start, int end, int position) {
+        // Empty quoted token, like ""
+        if (start < 0) start = end = position;
+        return new Token(value.toString(), start, end);
     }
 
     private static String escapeQuotesAndBackslashes(String s) {
-        final StringBuilder buf = new StringBuilder(s);
+        StringBuilder buf = null;
+        int copied = 0;
 
-        for (int i = s.length() - 1; i >= 0; i--) {
-            char c = s.charAt(i);
-            if ((c == '\\') || (c == '"')) {
-                buf.insert(i, '\\');
-            } else if (c == '\n') {
-                buf.deleteCharAt(i);
-                buf.insert(i, "\\n");
-            } else if (c == '\t') {
-                buf.deleteCharAt(i);
-                buf.insert(i, "\\t");
-            } else if (c == '\r') {
-                buf.deleteCharAt(i);
-                buf.insert(i, "\\r");
-            } else if (c == '\b') {
-                buf.deleteCharAt(i);
-                buf.insert(i, "\\b");
-            } else if (c == '\f') {
-                buf.deleteCharAt(i);
-                buf.insert(i, "\\f");
-            }
+        for (int i = 0; i < s.length(); i++) {
+            final String escaped = switch (s.charAt(i)) {
+                case '\\' -> "\\\\";
+                case '"' -> "\\\"";
+                case '\n' -> "\\n";
+                case '\t' -> "\\t";
+                case '\r' -> "\\r";
+                case '\b' -> "\\b";
+                case '\f' -> "\\f";
+                default -> null;
+            };
+            if (escaped == null) continue;
+            if (buf == null) buf = new StringBuilder(s.length() + 16);
+            buf.append(s, copied, i).append(escaped);
+            copied = i + 1;
         }
-        return buf.toString();
+        if (buf == null) return s;
+        return buf.append(s, copied, s.length()).toString();
     }
-}
\ No newline at end of file
+}
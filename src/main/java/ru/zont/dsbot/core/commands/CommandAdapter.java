@@ -18,20 +18,21 @@ import ru.zont.dsbot.core.commands.exceptions.InsufficientPermissionsException;
 import ru.zont.dsbot.core.config.ZDSBContextConfig;
 import ru.zont.dsbot.core.config.ZDSBBotConfig;
 import ru.zont.dsbot.core.util.DescribedException;
+import ru.zont.dsbot.core.util.EventAccessor;
 import ru.zont.dsbot.core.util.ResponseTarget;
 import ru.zont.dsbot.core.util.Strings;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.lang.reflect.InvocationTargetException;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 
 public abstract class CommandAdapter {
+    private static final ThreadLocal<Call> callContext = new ThreadLocal<>();
 
     private final ZDSBot bot;
     private final GuildContext context;
+    private volatile ParsePlan parsePlan;
 
     private final HelpFormatter helpFormatter = new HelpFormatter() {{
         setSyntaxPrefix("");
@@ -65,12 +66,18 @@ public abstract class CommandAdapter {
         return true;
     }
 
+    /**
+     * @return help text rendered once, see {@link #getParsePlan()}
+     */
     public String getHelp() {
-        String help = "```%s```\n%s%s".formatted(getSyntax(), getShortDesc(), getDescription().length() > 0 ? ("\n\n" + getDescription()) : "");
+        return getParsePlan().getHelp();
+    }
+
+    protected String renderHelp(Options options) {
+        String help = "```%s```\n%s%s".formatted(renderSyntax(options), getShortDesc(), getDescription().length() > 0 ? ("\n\n" + getDescription()) : "");
         try (StringBuilderWriter sbw = new StringBuilderWriter();
              PrintWriter pw = new PrintWriter(sbw)) {
             sbw.append(help);
-            Options options = getOptions();
             if (options.getOptions().size() != 0) {
                 sbw.append("\n```\n");
                 helpFormatter.printOptions(pw, Strings.DS_CODE_BLOCK_LINE_LENGTH, options, 1, 2);
@@ -96,10 +103,38 @@ public abstract class CommandAdapter {
         return new Options();
     }
 
+    /**
+     * Options, syntax and help of this command, compiled on first use (normally at registration
+     * in {@link CommandRegistry}). Call {@link #invalidateParsePlan()} if any of them has changed.
+     */
+    public final ParsePlan getParsePlan() {
+        ParsePlan plan = parsePlan;
+        if (plan == null) {
+            plan = ParsePlan.compile(this);
+            parsePlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * Make {@link #getParsePlan()} build again on next use, with values from
+     * {@link #getOptions()}, {@link #doStopAtNonOption()}, {@link #getRouting()} etc.
+     */
+    protected final void invalidateParsePlan() {
+        parsePlan = null;
+    }
+
+    /**
+     * @return syntax rendered once, see {@link #getParsePlan()}
+     */
     public String getSyntax() {
+        return getParsePlan().getSyntax();
+    }
+
+    protected String renderSyntax(Options options) {
         StringWriter w = new StringWriter();
         PrintWriter pw = new PrintWriter(w);
-        helpFormatter.printUsage(pw, 45, getCallableName(), getOptions());
+        helpFormatter.printUsage(pw, 45, getCallableName(), options);
 
         StringBuilder sb = new StringBuilder(w.toString().replaceAll("\\s*\\n\\s*", ""));
 
@@ -155,9 +190,48 @@ public abstract class CommandAdapter {
         return false;
     }
 
+    /**
+     * Whether this command keeps any state of a guild, or uses its context outside of the calling thread,
+     * e.g. in {@code queue(...)} callbacks, futures or timers. If so, {@link CommandRegistry} creates an instance
+     * per guild. Otherwise one instance is shared by all guilds and DMs, and learns the calling guild
+     * only on the thread that handles the call, see {@link #getContext()}.
+     */
+    public boolean hasGuildState() {
+        return true;
+    }
+
+    /**
+     * Context of the call being handled by the current thread. {@code context} is {@code null} for DMs.
+     */
+    private record Call(@Nullable GuildContext context) { }
+
+    /**
+     * @return context this instance is bound to, or, for shared instances (see {@link #hasGuildState()}),
+     * context of the guild the current call came from. {@code null} for DMs.
+     * @throws IllegalStateException if this is a shared instance and the current thread does not handle a call
+     */
     @Nullable
     public final GuildContext getContext() {
-        return context;
+        if (context != null || hasGuildState()) return context;
+        final Call call = callContext.get();
+        if (call == null)
+            throw new IllegalStateException("Context of shared command %s is only known on the thread that handles the call, see hasGuildState()"
+                    .formatted(getClass().getName()));
+        return call.context();
+    }
+
+    /**
+     * Run command handling code on behalf of the context, see {@link #getContext()}
+     */
+    public static void runInContext(@Nullable GuildContext context, Runnable action) {
+        final Call previous = callContext.get();
+        callContext.set(new Call(context));
+        try {
+            action.run();
+        } finally {
+            if (previous != null) callContext.set(previous);
+            else callContext.remove();
+        }
     }
 
     public final ZDSBot getBot() {
@@ -222,21 +296,14 @@ public abstract class CommandAdapter {
             if (params[0] instanceof final MessageReceivedEvent e)
                 return new ResponseTarget(e, getConfig());
             if (params[0] instanceof final GenericEvent e) {
-                Message message = null;
-                try {
-                    final Object msgObj = e.getClass().getMethod("getMessage").invoke(e);
-                    if (msgObj instanceof final Message msg)
-                        message = msg;
-                } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException ignored) { }
-
+                final EventAccessor accessor = EventAccessor.of(e);
+                final Message message = accessor.getMessage(e);
                 if (message != null)
                     return ResponseTarget.message(message, getConfig().doReplyToMessages());
 
-                try {
-                    final Object channelObj = e.getClass().getMethod("getChannel").invoke(e);
-                    if (channelObj instanceof final MessageChannel channel)
-                        return ResponseTarget.channel(channel);
-                } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException ignored) { }
+                final MessageChannel channel = accessor.getChannel(e);
+                if (channel != null)
+                    return ResponseTarget.channel(channel);
             }
         }
         throw new IllegalStateException("Channel not provided by external call");
@@ -270,22 +337,8 @@ public abstract class CommandAdapter {
     }
     @Nullable
     public static CommandAdapter findAdapter(ZDSBot bot, GuildContext context, String comName, String content, boolean slash) {
-        HashMap<String, CommandAdapter> adapters = context != null ? context.getCommands() : bot.getCommandsGlobal();
-        CommandAdapter adapter = adapters.getOrDefault(comName, null);
-        if (adapter == null || adapter.dontCallByName()) {
-            final List<CommandAdapter> found = adapters.values()
-                    .stream()
-                    .filter(a -> slash == (a instanceof SlashCommandAdapter))
-                    .filter(a -> a.isStringRepresentsThisCall(content))
-                    .toList();
-
-            if (found.size() > 1) {
-                throw new AmbiguousCallException(found);
-            } else if (found.size() == 1) {
-                adapter = found.get(0);
-            }
-        }
-        return adapter;
+        final CommandResolver resolver = context != null ? context.getCommandResolver() : bot.getCommandResolverGlobal();
+        return resolver.find(comName, content, slash);
     }
 
     @NotNull
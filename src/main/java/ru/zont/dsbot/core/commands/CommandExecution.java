@@ -0,0 +1,47 @@
+package ru.zont.dsbot.core.commands;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running commands off the JDA event thread
+ * (see {@link ru.zont.dsbot.core.config.ZDSBBotConfig#asyncCommands}).
+ */
+public final class CommandExecution {
+    private static final Logger log = LoggerFactory.getLogger(CommandExecution.class);
+
+    private CommandExecution() { }
+
+    /**
+     * @return executor that starts a new thread per task: a virtual one if the runtime supports them (Java 21+),
+     * or a pooled daemon platform thread otherwise.
+     */
+    public static ExecutorService newPerTaskExecutor() {
+        try {
+            final ExecutorService executor = (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invokeExact();
+            log.info("Commands will be executed on virtual threads");
+            return executor;
+        } catch (Throwable e) {
+            log.info("Virtual threads are not available, commands will be executed on a cached thread pool");
+            return Executors.newCachedThreadPool(daemonThreadFactory("Command"));
+        }
+    }
+
+    public static ThreadFactory daemonThreadFactory(String namePrefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            final Thread thread = new Thread(r, "%s-%d".formatted(namePrefix, counter.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
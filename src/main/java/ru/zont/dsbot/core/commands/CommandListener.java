@@ -2,12 +2,14 @@ package ru.zont.dsbot.core.commands;
 
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.events.GenericEvent;
 import net.dv8tion.jda.api.events.interaction.command.CommandAutoCompleteInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import ru.zont.dsbot.core.GuildContext;
 import ru.zont.dsbot.core.ZDSBot;
+import ru.zont.dsbot.core.commands.exceptions.CommandQueueOverflowException;
 import ru.zont.dsbot.core.commands.exceptions.InsufficientPermissionsException;
 import ru.zont.dsbot.core.listeners.GuildListenerAdapter;
 import ru.zont.dsbot.core.util.DescribedException;
@@ -15,9 +17,15 @@ import ru.zont.dsbot.core.util.ResponseTarget;
 import ru.zont.dsbot.core.util.Strings;
 
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.LongAdder;
 
 public class CommandListener extends GuildListenerAdapter {
+    private static final Set<Class<? extends GenericEvent>> TYPES = Set.of(MessageReceivedEvent.class,
+            SlashCommandInteractionEvent.class, CommandAutoCompleteInteractionEvent.class);
+
+    private final LongAdder rejectedMessages = new LongAdder();
+    private final LongAdder dispatchedMessages = new LongAdder();
+
     public CommandListener(GuildContext context) {
         super(context.getBot(), context);
     }
@@ -28,23 +36,27 @@ public class CommandListener extends GuildListenerAdapter {
 
     @Override
     public Set<Class<? extends GenericEvent>> getTypes() {
-        return Set.of(MessageReceivedEvent.class, SlashCommandInteractionEvent.class,
-                CommandAutoCompleteInteractionEvent.class);
+        return TYPES;
     }
 
     @Override
     public void onEvent(Guild guild, GenericEvent genericEvent) {
         if (genericEvent instanceof final SlashCommandInteractionEvent event) {
+            if (event.getUser().isBot()) return;
+            // Acknowledged here, within Discord's deadline, even if the command waits in its channel's queue.
+            // Replies, including errors of an overflowing queue, go to the interaction hook afterwards.
+            event.deferReply().queue();
             ResponseTarget responseTarget = new ResponseTarget(event);
-            wrapCommand(responseTarget, () -> handleCommandEvent(event, responseTarget));
+            execute(responseTarget, () -> handleCommandEvent(event, responseTarget));
         } else if (genericEvent instanceof final MessageReceivedEvent event) {
+            if (!isCommandMessage(event)) return;
             ResponseTarget responseTarget = new ResponseTarget(event, getConfig());
-            wrapCommand(responseTarget, () -> handleMessageEvent(event, responseTarget));
+            execute(responseTarget, () -> handleMessageEvent(event, responseTarget));
         } else if (genericEvent instanceof CommandAutoCompleteInteractionEvent event) {
             try {
                 final SlashCommandAdapter adapter = CommandAdapter.findAndCheckSlashAdapter(getBot(), getContext(),
                         event.getName(), event.getCommandString().substring(1));
-                adapter.onSlashCommandAutoComplete(event);
+                CommandAdapter.runInContext(getContext(), () -> adapter.onSlashCommandAutoComplete(event));
             } catch (InsufficientPermissionsException ignored) {
             } catch (Throwable e) {
                 getErrorReporter().reportError(null,
@@ -55,9 +67,26 @@ public class CommandListener extends GuildListenerAdapter {
         }
     }
 
+    private void execute(ResponseTarget reportTo, Runnable handler) {
+        if (!getBotConfig().doAsyncCommands()) {
+            wrapCommand(reportTo, handler);
+            return;
+        }
+
+        final MessageChannel channel = reportTo.getChannel();
+        try {
+            getBot().getCommandExecutor().submit(
+                    getContext() != null ? getContext().getGuildId() : null,
+                    channel != null ? channel.getIdLong() : 0,
+                    () -> wrapCommand(reportTo, handler));
+        } catch (CommandQueueOverflowException e) {
+            wrapCommand(reportTo, () -> { throw e; });
+        }
+    }
+
     private void wrapCommand(ResponseTarget reportTo, Runnable handler) {
         try {
-            handler.run();
+            CommandAdapter.runInContext(getContext(), handler);
         } catch (DescribedException e) {
             getErrorReporter().reportError(reportTo,
                     e.getTitle(),
@@ -75,9 +104,6 @@ public class CommandListener extends GuildListenerAdapter {
     }
 
     private void handleCommandEvent(SlashCommandInteractionEvent event, ResponseTarget responseTarget) {
-        if (event.getUser().isBot()) return;
-
-        event.deferReply().complete();
         final SlashCommandAdapter adapter = CommandAdapter.findAndCheckSlashAdapter(getBot(), getContext(),
                 event.getName(), event.getCommandString().substring(1));
 
@@ -90,17 +116,42 @@ public class CommandListener extends GuildListenerAdapter {
         adapter.onSlashCommand(event);
     }
 
-    private void handleMessageEvent(MessageReceivedEvent event, ResponseTarget responseTarget) {
-        if (event.isWebhookMessage()) return;
-        if (event.getAuthor().isBot()) return;
+    /**
+     * Cheap checks that are done on the event thread, before the command is handed off.
+     * Most of guild messages are not commands, so the prefix goes first. It is read from the in-memory snapshot
+     * of the config, which the config watcher keeps current, so this does not touch the file system.
+     */
+    private boolean isCommandMessage(MessageReceivedEvent event) {
+        if (getContext() != null && !event.getMessage().getContentRaw().startsWith(getPrefix())
+                || event.isWebhookMessage()
+                || event.getAuthor().isBot()) {
+            rejectedMessages.increment();
+            return false;
+        }
+        dispatchedMessages.increment();
+        return true;
+    }
+
+    /**
+     * @return count of messages that were dropped by the listener without further processing, mostly non-commands
+     */
+    public long getRejectedMessages() {
+        return rejectedMessages.sum();
+    }
+
+    /**
+     * @return count of messages that were handled as command calls
+     */
+    public long getDispatchedMessages() {
+        return dispatchedMessages.sum();
+    }
 
+    private void handleMessageEvent(MessageReceivedEvent event, ResponseTarget responseTarget) {
         final Message message = event.getMessage();
         final String contentMsg = message.getContentRaw();
-        final boolean startsWith = contentMsg.startsWith(getConfig().getPrefix());
-        if (!startsWith && getContext() != null)
-            return;
+        final String prefix = getPrefix();
 
-        final Input input = new Input(startsWith ? stripPrefix(contentMsg) : contentMsg);
+        final Input input = new Input(contentMsg.startsWith(prefix) ? contentMsg.substring(prefix.length()) : contentMsg);
         final CommandAdapter adapter = input.findAndApplyAdapter(getBot(), getContext());
 
         if (adapter.isWriteableChannelRequired())
@@ -112,8 +163,4 @@ public class CommandListener extends GuildListenerAdapter {
         adapter.onCall(responseTarget, input, event);
     }
 
-    private String stripPrefix(String inputString) {
-        return inputString.replaceFirst(Pattern.quote(getPrefix()), "");
-    }
-
 }
@@ -0,0 +1,152 @@
+package ru.zont.dsbot.core.commands;
+
+import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.zont.dsbot.core.GuildContext;
+import ru.zont.dsbot.core.ZDSBot;
+import ru.zont.dsbot.core.config.ZDSBBotConfig;
+
+import java.util.*;
+
+import static ru.zont.dsbot.core.ZDSBot.isCommandExcluded;
+
+/**
+ * Bot-wide registry of command classes. Every class is instantiated once for the global (DM) scope.
+ * Guilds get their own instances, unless the command opts out of {@link CommandAdapter#hasGuildState()}:
+ * then the one instance is shared by all guilds, and during a call {@link CommandAdapter#getContext()}
+ * returns the calling guild's context.
+ * <p>
+ * Guilds without stateful commands share one of two precomputed {@link CommandSet}s
+ * (for approved and for foreign guilds), so such a guild holds no per-command objects at all.
+ */
+public final class CommandRegistry {
+    private static final Logger log = LoggerFactory.getLogger(CommandRegistry.class);
+
+    private final ZDSBot bot;
+    private final List<Entry> entries;
+    private final boolean hasGuildState;
+    private final Set<String> guildsBannedCommands;
+    private final Set<String> foreignBannedCommands;
+
+    private volatile CommandSet approvedSet;
+    private volatile CommandSet foreignSet;
+
+    /**
+     * Command class metadata, read once from its shared instance
+     */
+    public record Entry(Class<? extends CommandAdapter> type, CommandAdapter shared, String name, List<String> aliases,
+                        boolean allowGlobal, boolean allowGuilds, boolean allowForeignGuilds, boolean hasGuildState) {
+        public List<String> callNames() {
+            final ArrayList<String> res = new ArrayList<>(aliases.size() + 1);
+            res.add(name);
+            res.addAll(aliases);
+            return res;
+        }
+    }
+
+    /**
+     * Commands available in some guild
+     */
+    public record CommandSet(Map<String, CommandAdapter> commands, CommandResolver resolver,
+                             List<SlashCommandData> slashCommands) { }
+
+    public CommandRegistry(ZDSBot bot, List<Class<? extends CommandAdapter>> classes) {
+        this.bot = bot;
+
+        final ZDSBBotConfig cfg = bot.getConfig();
+        final Set<String> excludedByConfig = cfg.excludedCommands.toSet();
+        final ArrayList<Entry> entries = new ArrayList<>(classes.size());
+        final HashSet<String> guildsBanned = new HashSet<>();
+        final HashSet<String> foreignBanned = new HashSet<>();
+
+        for (Class<? extends CommandAdapter> klass: classes) {
+            if (isCommandExcluded(cfg, excludedByConfig, klass)) continue;
+
+            final CommandAdapter instance = newInstance(klass, null);
+            instance.getParsePlan();
+            final Entry entry = new Entry(klass, instance, instance.getName(), List.copyOf(instance.getAliases()),
+                    instance.allowGlobal(), instance.allowGuilds(), instance.allowForeignGuilds(),
+                    instance.hasGuildState());
+            entries.add(entry);
+
+            if (!entry.allowGuilds())
+                guildsBanned.addAll(entry.callNames());
+            if (!entry.allowForeignGuilds() && (entry.allowGuilds() || instance instanceof SlashCommandAdapter))
+                foreignBanned.addAll(entry.callNames());
+
+            log.info(ZDSBot.formatLog(null, "Command registered: %s%s",
+                    klass.getName(), entry.hasGuildState() ? " (per-guild instances)" : ""));
+        }
+
+        this.entries = List.copyOf(entries);
+        hasGuildState = entries.stream().anyMatch(Entry::hasGuildState);
+        guildsBannedCommands = Set.copyOf(guildsBanned);
+        foreignBannedCommands = Set.copyOf(foreignBanned);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Set<String> getGuildsBannedCommands() {
+        return guildsBannedCommands;
+    }
+
+    public Set<String> getForeignBannedCommands() {
+        return foreignBannedCommands;
+    }
+
+    /**
+     * @param foreign whether the guild is not approved in {@link ZDSBBotConfig#approvedGuilds}
+     * @return shared set if there are no stateful commands, or a new one with instances bound to the context
+     */
+    public CommandSet forGuild(GuildContext context, boolean foreign) {
+        if (hasGuildState)
+            return buildSet(context, foreign);
+
+        CommandSet set = foreign ? foreignSet : approvedSet;
+        if (set != null) return set;
+        synchronized (this) {
+            set = foreign ? foreignSet : approvedSet;
+            if (set == null) {
+                set = buildSet(null, foreign);
+                if (foreign) foreignSet = set;
+                else approvedSet = set;
+            }
+            return set;
+        }
+    }
+
+    private CommandSet buildSet(GuildContext context, boolean foreign) {
+        final HashMap<String, CommandAdapter> commands = new HashMap<>();
+        final ArrayList<SlashCommandData> slashCommands = new ArrayList<>();
+
+        for (Entry entry: entries) {
+            final boolean slash = SlashCommandAdapter.class.isAssignableFrom(entry.type());
+            if (!entry.allowGuilds() && !slash) continue;
+            if (!entry.allowForeignGuilds() && foreign) continue;
+
+            final CommandAdapter instance;
+            if (entry.hasGuildState() && context != null) {
+                instance = newInstance(entry.type(), context);
+                instance.getParsePlan();
+            } else instance = entry.shared();
+
+            if (instance instanceof SlashCommandAdapter sca && !sca.isGlobal())
+                slashCommands.add(sca.getSlashCommand());
+            commands.put(entry.name(), instance);
+        }
+
+        return new CommandSet(Collections.unmodifiableMap(commands), CommandResolver.build(commands),
+                List.copyOf(slashCommands));
+    }
+
+    private CommandAdapter newInstance(Class<? extends CommandAdapter> klass, GuildContext context) {
+        try {
+            return klass.getDeclaredConstructor(ZDSBot.class, GuildContext.class).newInstance(bot, context);
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot instantiate Command " + klass.getName(), e);
+        }
+    }
+}
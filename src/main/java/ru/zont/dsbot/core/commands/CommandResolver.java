@@ -0,0 +1,156 @@
+package ru.zont.dsbot.core.commands;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Immutable lookup structure over a set of commands, built once per {@link ru.zont.dsbot.core.GuildContext}
+ * (or once for global commands). Names and aliases are compiled into a prefix trie per namespace
+ * (text and slash commands), and every trie node holds a precomputed list of commands whose name or alias
+ * is a prefix of the path to it, so resolving a call is a single walk over the input.
+ * <p>
+ * Semantics are the same as of {@link CommandAdapter#isStringRepresentsThisCall(String)}: a command matches
+ * if the input starts with its name or any alias. Commands that override that method are matched
+ * by calling it directly.
+ */
+public final class CommandResolver {
+    private static final Logger log = LoggerFactory.getLogger(CommandResolver.class);
+
+    private final Map<String, CommandAdapter> byName;
+    private final Trie text;
+    private final Trie slash;
+
+    private CommandResolver(Map<String, CommandAdapter> byName, Trie text, Trie slash) {
+        this.byName = byName;
+        this.text = text;
+        this.slash = slash;
+    }
+
+    public static CommandResolver build(Map<String, ? extends CommandAdapter> commands) {
+        final Trie.Builder text = new Trie.Builder();
+        final Trie.Builder slash = new Trie.Builder();
+        for (CommandAdapter adapter: commands.values()) {
+            final Trie.Builder builder = adapter instanceof SlashCommandAdapter ? slash : text;
+            if (overridesMatching(adapter)) {
+                builder.custom.add(adapter);
+                continue;
+            }
+            builder.insert(adapter.getName(), adapter);
+            for (String alias: adapter.getAliases())
+                builder.insert(alias, adapter);
+        }
+        return new CommandResolver(Map.copyOf(commands), text.build("text"), slash.build("slash"));
+    }
+
+    /**
+     * @see CommandAdapter#findAdapter(ru.zont.dsbot.core.ZDSBot, ru.zont.dsbot.core.GuildContext, String, String, boolean)
+     */
+    @Nullable
+    public CommandAdapter find(String comName, String content, boolean slash) {
+        CommandAdapter adapter = comName != null ? byName.get(comName) : null;
+        if (adapter == null || adapter.dontCallByName()) {
+            final List<CommandAdapter> found = (slash ? this.slash : text).match(content);
+            if (found.size() > 1)
+                throw new CommandAdapter.AmbiguousCallException(found);
+            else if (found.size() == 1)
+                adapter = found.get(0);
+        }
+        return adapter;
+    }
+
+    public Map<String, CommandAdapter> getCommands() {
+        return byName;
+    }
+
+    private static boolean overridesMatching(CommandAdapter adapter) {
+        try {
+            return adapter.getClass().getMethod("isStringRepresentsThisCall", String.class)
+                    .getDeclaringClass() != CommandAdapter.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static final class Trie {
+        private final Node root;
+        private final List<CommandAdapter> custom;
+
+        private Trie(Node root, List<CommandAdapter> custom) {
+            this.root = root;
+            this.custom = custom;
+        }
+
+        List<CommandAdapter> match(String content) {
+            Node node = root;
+            List<CommandAdapter> res = root.matches;
+            for (int i = 0, len = content.length(); i < len; i++) {
+                node = node.child(content.charAt(i));
+                if (node == null) break;
+                res = node.matches;
+            }
+
+            if (custom.isEmpty()) return res;
+            final ArrayList<CommandAdapter> merged = new ArrayList<>(res);
+            for (CommandAdapter adapter: custom)
+                if (adapter.isStringRepresentsThisCall(content))
+                    merged.add(adapter);
+            return merged;
+        }
+
+        private static final class Builder {
+            private final MutableNode root = new MutableNode();
+            private final ArrayList<CommandAdapter> custom = new ArrayList<>();
+
+            void insert(String key, CommandAdapter adapter) {
+                MutableNode node = root;
+                for (int i = 0; i < key.length(); i++)
+                    node = node.children.computeIfAbsent(key.charAt(i), c -> new MutableNode());
+                if (!node.terminals.contains(adapter))
+                    node.terminals.add(adapter);
+            }
+
+            Trie build(String namespace) {
+                return new Trie(root.freeze(List.of(), new StringBuilder(), namespace), List.copyOf(custom));
+            }
+        }
+
+        private static final class MutableNode {
+            private final TreeMap<Character, MutableNode> children = new TreeMap<>();
+            private final ArrayList<CommandAdapter> terminals = new ArrayList<>(1);
+
+            Node freeze(List<CommandAdapter> inherited, StringBuilder path, String namespace) {
+                List<CommandAdapter> matches = inherited;
+                if (!terminals.isEmpty()) {
+                    final LinkedHashSet<CommandAdapter> set = new LinkedHashSet<>(inherited);
+                    set.addAll(terminals);
+                    matches = List.copyOf(set);
+                    if (matches.size() > 1)
+                        log.warn("Ambiguous {} command call '{}': {}", namespace, path,
+                                matches.stream().map(CommandAdapter::getName).toList());
+                }
+
+                final char[] keys = new char[children.size()];
+                final Node[] nodes = new Node[children.size()];
+                int i = 0;
+                for (Map.Entry<Character, MutableNode> e: children.entrySet()) {
+                    keys[i] = e.getKey();
+                    path.append(keys[i]);
+                    nodes[i] = e.getValue().freeze(matches, path, namespace);
+                    path.setLength(path.length() - 1);
+                    i++;
+                }
+                return new Node(keys, nodes, matches);
+            }
+        }
+
+        private record Node(char[] keys, Node[] children, List<CommandAdapter> matches) {
+            Node child(char c) {
+                final int i = Arrays.binarySearch(keys, c);
+                return i >= 0 ? children[i] : null;
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package ru.zont.dsbot.core.commands;
 
 import org.apache.commons.cli.CommandLine;
-import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,9 +8,7 @@ import ru.zont.dsbot.core.GuildContext;
 import ru.zont.dsbot.core.ZDSBot;
 import ru.zont.dsbot.core.commands.exceptions.InvalidSyntaxException;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.List;
 
 public class Input {
     private static final Logger log = LoggerFactory.getLogger(Input.class);
@@ -19,15 +16,21 @@ public class Input {
     private final String content;
     private final String comName;
     private final String contentStripped;
-
-    private final DefaultParser defaultParser = new DefaultParser(false);
+    private final List<ArgumentTokenizer.Token> tokens;
 
     private CommandLine commandLine = null;
 
     public Input(String content) {
         this.content = content;
-        this.comName = content.split("\s", 2)[0];
-        this.contentStripped = content.replaceFirst(Pattern.quote(comName) + "\s*", "");
+        int comEnd = content.indexOf(' ');
+        if (comEnd < 0) comEnd = content.length();
+        int argsStart = comEnd;
+        while (argsStart < content.length() && content.charAt(argsStart) == ' ')
+            argsStart++;
+
+        this.comName = content.substring(0, comEnd);
+        this.contentStripped = content.substring(argsStart);
+        this.tokens = ArgumentTokenizer.lex(content, argsStart);
     }
 
     public String getContentFull() {
@@ -46,24 +49,38 @@ public class Input {
         return commandLine;
     }
 
+    /**
+     * @return part of the original content that holds arguments left unrecognized by the parser, as is
+     */
     public String getContentUnrecognized() {
-        if (commandLine.getArgs().length > 0) {
-            final String sep = "[\\s\"']+";
-            final Pattern pattern = Pattern.compile(
-                    commandLine.getArgList().stream().map(Pattern::quote).collect(Collectors.joining(sep)));
-            final Matcher matcher = pattern.matcher(content);
-            if (matcher.find()) return matcher.group();
-            else return content.replaceFirst(".+(?=%s)".formatted(Pattern.quote(commandLine.getArgs()[0])), "");
-        } else return "";
+        final List<String> args = commandLine.getArgList();
+        if (args.isEmpty()) return "";
+
+        // Usually the leftover is a tail of the tokens
+        final int tail = tokens.size() - args.size();
+        if (tail >= 0 && tokens.get(tail).value().equals(args.get(0)))
+            return content.substring(tokens.get(tail).start(), tokens.get(tokens.size() - 1).end());
+
+        int first = -1, last = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            final String value = tokens.get(i).value();
+            if (first < 0 && value.equals(args.get(0))) first = i;
+            if (first >= 0 && value.equals(args.get(args.size() - 1))) last = i;
+        }
+        if (first < 0 || last < 0) return "";
+        return content.substring(tokens.get(first).start(), tokens.get(last).end());
     }
 
     public void applyAdapter(GuildContext context, CommandAdapter adapter) {
-        String[] args = ArgumentTokenizer.tokenize(getContent()).toArray(String[]::new);
+        final String[] args = new String[tokens.size()];
+        for (int i = 0; i < args.length; i++)
+            args[i] = tokens.get(i).value();
 
+        final ParsePlan plan = adapter.getParsePlan();
         try {
-            commandLine = defaultParser.parse(adapter.getOptions(), args, adapter.doStopAtNonOption());
+            commandLine = plan.parse(args);
         } catch (ParseException e) {
-            if (adapter.doStopAtNonOption())
+            if (plan.doStopAtNonOption())
                 log.error(ZDSBot.formatLog(context, "ParseException on parsing %s", adapter.getName()), e);
             else throw new InvalidSyntaxException(null, adapter);
         }
@@ -0,0 +1,162 @@
+package ru.zont.dsbot.core.commands;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.zont.dsbot.core.commands.exceptions.CommandQueueOverflowException;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs commands over a shared executor in serial lanes: commands of one channel are executed
+ * in the order they came, different channels and guilds run in parallel.
+ * <p>
+ * Each guild has a bounded count of pending commands; on overflow a command is either rejected
+ * with {@link CommandQueueOverflowException} or silently dropped, see {@link OverflowPolicy}.
+ * A lane runs one command per turn and then yields the worker, so with a bounded worker pool
+ * a busy channel cannot starve the others. Fairness is per channel, not per guild: a guild with many
+ * busy channels gets a larger share of workers, bounded only by its pending commands limit.
+ */
+public class KeyedCommandExecutor {
+    private static final Logger log = LoggerFactory.getLogger(KeyedCommandExecutor.class);
+    public static final String GLOBAL_KEY = "GLOBAL";
+
+    public enum OverflowPolicy {
+        REJECT, DROP;
+
+        public static OverflowPolicy parse(String value) {
+            if (value != null && "drop".equalsIgnoreCase(value.strip()))
+                return DROP;
+            return REJECT;
+        }
+    }
+
+    private final Executor workers;
+    private final int guildQueueLimit;
+    private final OverflowPolicy overflowPolicy;
+
+    private final ConcurrentHashMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, GuildStats> guildStats = new ConcurrentHashMap<>();
+
+    public KeyedCommandExecutor(Executor workers, int guildQueueLimit, OverflowPolicy overflowPolicy) {
+        this.workers = workers;
+        this.guildQueueLimit = guildQueueLimit;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param guildId guild to account this command in, {@code null} for DMs
+     * @param channelId channel which lane the command will be executed in
+     * @return {@code false} if the command was dropped due to overflow
+     * @throws CommandQueueOverflowException if the guild's queue is full and policy is {@link OverflowPolicy#REJECT}
+     */
+    public boolean submit(String guildId, long channelId, Runnable command) {
+        final GuildStats stats = guildStats.computeIfAbsent(guildId != null ? guildId : GLOBAL_KEY, k -> new GuildStats());
+        if (!stats.tryAcquire(guildQueueLimit)) {
+            stats.rejected.incrementAndGet();
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                log.warn("Command queue of guild {} is full, dropping command", guildId);
+                return false;
+            }
+            throw new CommandQueueOverflowException();
+        }
+
+        final Task task = new Task(stats, command);
+        final boolean[] schedule = {false};
+        lanes.compute(channelId, (k, lane) -> {
+            if (lane == null) lane = new Lane();
+            lane.queue.add(task);
+            if (!lane.running) {
+                lane.running = true;
+                schedule[0] = true;
+            }
+            return lane;
+        });
+
+        if (schedule[0])
+            scheduleLane(channelId);
+        return true;
+    }
+
+    private void scheduleLane(long channelId) {
+        workers.execute(() -> runNext(channelId));
+    }
+
+    private void runNext(long channelId) {
+        final Task[] next = {null};
+        lanes.computeIfPresent(channelId, (k, lane) -> {
+            next[0] = lane.queue.poll();
+            if (next[0] == null) {
+                lane.running = false;
+                return null;
+            }
+            return lane;
+        });
+        if (next[0] == null) return;
+
+        try {
+            next[0].command.run();
+        } catch (Throwable t) {
+            log.error("Uncaught exception in command lane", t);
+        } finally {
+            next[0].stats.depth.decrementAndGet();
+            scheduleLane(channelId);
+        }
+    }
+
+    /**
+     * @return count of commands of this guild that are queued or running now
+     */
+    public int getQueueDepth(String guildId) {
+        final GuildStats stats = guildStats.get(guildId != null ? guildId : GLOBAL_KEY);
+        return stats != null ? stats.depth.get() : 0;
+    }
+
+    /**
+     * @return count of commands of this guild that were rejected or dropped due to overflow
+     */
+    public long getRejectedCount(String guildId) {
+        final GuildStats stats = guildStats.get(guildId != null ? guildId : GLOBAL_KEY);
+        return stats != null ? stats.rejected.get() : 0;
+    }
+
+    /**
+     * Drop counters of a guild the bot has left. Its commands that are still queued finish as usual.
+     */
+    public void removeGuild(String guildId) {
+        guildStats.remove(guildId != null ? guildId : GLOBAL_KEY);
+    }
+
+    public int getGuildQueueLimit() {
+        return guildQueueLimit;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    private static class Lane {
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private boolean running = false;
+    }
+
+    private record Task(GuildStats stats, Runnable command) { }
+
+    private static class GuildStats {
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicLong rejected = new AtomicLong();
+
+        boolean tryAcquire(int limit) {
+            while (true) {
+                final int current = depth.get();
+                if (limit > 0 && current >= limit)
+                    return false;
+                if (depth.compareAndSet(current, current + 1))
+                    return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ru.zont.dsbot.core.commands;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Everything that {@link CommandAdapter} needs for parsing and describing its calls, built once per adapter
+ * (see {@link CommandAdapter#getParsePlan()}) instead of on every call.
+ * <p>
+ * {@link Options} are shared by all calls. {@link DefaultParser} only reads them, except for option groups,
+ * which keep the selected option, so parsing with groups is serialized on the plan.
+ */
+public final class ParsePlan {
+    private static final ThreadLocal<DefaultParser> parser = ThreadLocal.withInitial(() -> new DefaultParser(false));
+
+    private final Options options;
+    private final boolean stopAtNonOption;
+    private final boolean hasGroups;
+    private final String syntax;
+    private final String help;
+
+    private ParsePlan(Options options, boolean stopAtNonOption, String syntax, String help) {
+        this.options = options;
+        this.stopAtNonOption = stopAtNonOption;
+        this.hasGroups = options.getOptions().stream().anyMatch(o -> options.getOptionGroup(o) != null);
+        this.syntax = syntax;
+        this.help = help;
+    }
+
+    static ParsePlan compile(CommandAdapter adapter) {
+        final Options declared = adapter.getOptions();
+        final Options options = declared != null ? declared : new Options();
+        return new ParsePlan(options, adapter.doStopAtNonOption(),
+                adapter.renderSyntax(options), adapter.renderHelp(options));
+    }
+
+    public CommandLine parse(String[] args) throws ParseException {
+        if (!hasGroups)
+            return parser.get().parse(options, args, stopAtNonOption);
+        synchronized (this) {
+            return parser.get().parse(options, args, stopAtNonOption);
+        }
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    public boolean doStopAtNonOption() {
+        return stopAtNonOption;
+    }
+
+    public String getSyntax() {
+        return syntax;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+}
@@ -36,11 +36,11 @@ public class PermissionsUtil {
     }
 
     public boolean checkOperator() {
-        return bot.getConfig().getOperators().contains(author.getId());
+        return bot.getConfig().isOperator(author.getIdLong());
     }
 
     public boolean checkNotForeign() {
-        return context != null && bot.getConfig().getApprovedGuilds().contains(context.getGuildId());
+        return context != null && bot.getConfig().isApprovedGuild(context.getGuildIdLong());
     }
 
     public boolean checkGuildAdmin() {
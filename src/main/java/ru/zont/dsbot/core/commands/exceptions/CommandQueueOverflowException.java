@@ -0,0 +1,10 @@
+package ru.zont.dsbot.core.commands.exceptions;
+
+import ru.zont.dsbot.core.util.DescribedException;
+import ru.zont.dsbot.core.util.Strings;
+
+public class CommandQueueOverflowException extends DescribedException {
+    public CommandQueueOverflowException() {
+        super(Strings.CORE.get("err.queue_overflow.title"), Strings.CORE.get("err.queue_overflow"), 0xCB9A17);
+    }
+}
@@ -66,7 +66,7 @@ public class Help extends CommandAdapter {
         }
     }
 
-    private HashMap<String, CommandAdapter> getCommands() {
+    private Map<String, CommandAdapter> getCommands() {
         return getContext() != null ? getContext().getCommands() : getBot().getCommandsGlobal();
     }
 
@@ -99,6 +99,11 @@ public class Help extends CommandAdapter {
                 .respondEmbeds(MessageSplitter.embeds(content, builder)));
     }
 
+    @Override
+    public boolean hasGuildState() {
+        return false;
+    }
+
     @Override
     public Options getOptions() {
         return new Options()
@@ -43,6 +43,11 @@ public class Ping extends CommandAdapter {
                 .build()).queue();
     }
 
+    @Override
+    public boolean hasGuildState() {
+        return false;
+    }
+
     @Override
     public String getName() {
         return "ping";
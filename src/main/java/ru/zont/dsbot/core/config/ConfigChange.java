@@ -0,0 +1,9 @@
+package ru.zont.dsbot.core.config;
+
+import javax.annotation.Nullable;
+
+/**
+ * Effective change of a config value, delivered to subscribers by {@link ConfigChangeBus}.
+ * Values are as {@link ZDSBConfig.Entry#getValue()} would return them, inherited ones included.
+ */
+public record ConfigChange(ZDSBConfig config, String key, @Nullable String oldValue, @Nullable String newValue) { }
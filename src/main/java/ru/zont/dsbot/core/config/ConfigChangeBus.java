@@ -0,0 +1,58 @@
+package ru.zont.dsbot.core.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Delivers {@link ConfigChange}s to subscribers, see {@link ZDSBConfig#subscribe(java.util.function.Consumer)}.
+ * Changes are delivered in the order they were made, on one shared daemon thread, so listeners should not block.
+ */
+public final class ConfigChangeBus {
+    private static final Logger log = LoggerFactory.getLogger(ConfigChangeBus.class);
+    private static final ConfigChangeBus shared = new ConfigChangeBus();
+
+    private final ExecutorService executor;
+
+    private ConfigChangeBus() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "ConfigChangeBus");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static ConfigChangeBus shared() {
+        return shared;
+    }
+
+    void deliver(List<ZDSBConfig.Subscription> subscriptions, List<ConfigChange> changes) {
+        executor.execute(() -> {
+            for (ConfigChange change: changes) {
+                for (ZDSBConfig.Subscription subscription: subscriptions) {
+                    try {
+                        subscription.accept(change);
+                    } catch (Exception e) {
+                        log.error("Config change listener failed on {}", change.key(), e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a task in the delivery thread, after changes published so far
+     */
+    void execute(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Config change task failed", e);
+            }
+        });
+    }
+}
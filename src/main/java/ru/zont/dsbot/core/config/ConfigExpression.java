@@ -0,0 +1,180 @@
+package ru.zont.dsbot.core.config;
+
+/**
+ * Arithmetic expression from a config value, like {@code 4 * 60 * 60}, compiled into a tree once
+ * and evaluated without re-parsing. Parsing errors are thrown from {@link #compile(String)}.
+ * <p>
+ * Grammar:
+ * <pre>
+ * expression = term | expression `+` term | expression `-` term
+ * term = factor | term `*` factor | term `/` factor
+ * factor = `+` factor | `-` factor | `(` expression `)` | number
+ *        | functionName `(` expression `)` | functionName factor
+ *        | factor `^` factor
+ * </pre>
+ * Functions are {@code sqrt}, and {@code sin}, {@code cos}, {@code tan} of degrees.
+ */
+public abstract class ConfigExpression {
+
+    public abstract double evaluate();
+
+    public static ConfigExpression compile(final String str) {
+        return new Parser(str).parse();
+    }
+
+    private static final class Const extends ConfigExpression {
+        private final double value;
+
+        Const(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double evaluate() {
+            return value;
+        }
+    }
+
+    private static final class Unary extends ConfigExpression {
+        private final char op;
+        private final ConfigExpression arg;
+
+        Unary(char op, ConfigExpression arg) {
+            this.op = op;
+            this.arg = arg;
+        }
+
+        @Override
+        public double evaluate() {
+            final double x = arg.evaluate();
+            return op == '-' ? -x : x;
+        }
+    }
+
+    private static final class Binary extends ConfigExpression {
+        private final char op;
+        private final ConfigExpression left;
+        private final ConfigExpression right;
+
+        Binary(char op, ConfigExpression left, ConfigExpression right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public double evaluate() {
+            final double x = left.evaluate();
+            final double y = right.evaluate();
+            return switch (op) {
+                case '+' -> x + y;
+                case '-' -> x - y;
+                case '*' -> x * y;
+                case '/' -> x / y;
+                default -> Math.pow(x, y);
+            };
+        }
+    }
+
+    private static final class Function extends ConfigExpression {
+        private final String name;
+        private final ConfigExpression arg;
+
+        Function(String name, ConfigExpression arg) {
+            this.name = name;
+            this.arg = arg;
+        }
+
+        @Override
+        public double evaluate() {
+            final double x = arg.evaluate();
+            return switch (name) {
+                case "sqrt" -> Math.sqrt(x);
+                case "sin" -> Math.sin(Math.toRadians(x));
+                case "cos" -> Math.cos(Math.toRadians(x));
+                default -> Math.tan(Math.toRadians(x));
+            };
+        }
+    }
+
+    private static final class Parser {
+        private final String str;
+        private int pos = -1, ch;
+
+        Parser(String str) {
+            this.str = str;
+        }
+
+        void nextChar() {
+            ch = (++pos < str.length()) ? str.charAt(pos) : -1;
+        }
+
+        boolean eat(int charToEat) {
+            while (ch == ' ') nextChar();
+            if (ch == charToEat) {
+                nextChar();
+                return true;
+            }
+            return false;
+        }
+
+        ConfigExpression parse() {
+            nextChar();
+            ConfigExpression x = parseExpression();
+            if (pos < str.length()) throw new RuntimeException("Unexpected: " + (char) ch);
+            return x;
+        }
+
+        ConfigExpression parseExpression() {
+            ConfigExpression x = parseTerm();
+            for (;;) {
+                if      (eat('+')) x = new Binary('+', x, parseTerm()); // addition
+                else if (eat('-')) x = new Binary('-', x, parseTerm()); // subtraction
+                else return x;
+            }
+        }
+
+        ConfigExpression parseTerm() {
+            ConfigExpression x = parseFactor();
+            for (;;) {
+                if      (eat('*')) x = new Binary('*', x, parseFactor()); // multiplication
+                else if (eat('/')) x = new Binary('/', x, parseFactor()); // division
+                else return x;
+            }
+        }
+
+        ConfigExpression parseFactor() {
+            if (eat('+')) return new Unary('+', parseFactor()); // unary plus
+            if (eat('-')) return new Unary('-', parseFactor()); // unary minus
+
+            ConfigExpression x;
+            int startPos = this.pos;
+            if (eat('(')) { // parentheses
+                x = parseExpression();
+                if (!eat(')')) throw new RuntimeException("Missing ')'");
+            } else if ((ch >= '0' && ch <= '9') || ch == '.') { // numbers
+                while ((ch >= '0' && ch <= '9') || ch == '.') nextChar();
+                x = new Const(Double.parseDouble(str.substring(startPos, this.pos)));
+            } else if (ch >= 'a' && ch <= 'z') { // functions
+                while (ch >= 'a' && ch <= 'z') nextChar();
+                String func = str.substring(startPos, this.pos);
+                if (eat('(')) {
+                    x = parseExpression();
+                    if (!eat(')')) throw new RuntimeException("Missing ')' after argument to " + func);
+                } else {
+                    x = parseFactor();
+                }
+                x = switch (func) {
+                    case "sqrt", "sin", "cos", "tan" -> new Function(func, x);
+                    default -> throw new RuntimeException("Unknown function: " + func);
+                };
+            } else {
+                throw new RuntimeException("Unexpected: " + (char) ch);
+            }
+
+            if (eat('^')) x = new Binary('^', x, parseFactor()); // exponentiation
+
+            return x;
+        }
+    }
+}
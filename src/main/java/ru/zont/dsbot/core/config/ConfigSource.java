@@ -0,0 +1,20 @@
+package ru.zont.dsbot.core.config;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Storage of a config that does not have its own properties file, see {@link GuildConfigStore}.
+ * Only the entries that differ from the inherited config are passed to {@link #write(Map)}.
+ */
+interface ConfigSource {
+
+    /**
+     * @return stored properties, or {@code null} if nothing is stored
+     */
+    @Nullable
+    Map<String, String> read() throws IOException;
+
+    void write(Map<String, String> properties) throws IOException;
+}
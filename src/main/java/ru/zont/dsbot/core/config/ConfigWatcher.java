@@ -0,0 +1,185 @@
+package ru.zont.dsbot.core.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches config directories with a single {@link WatchService} thread and marks configs dirty
+ * when their files change on disk, so reading a config does not need to check the file.
+ * <p>
+ * On platforms without a native {@link WatchService} (anything but Linux and Windows, where the JDK falls back
+ * to polling every few seconds), registered files are additionally checked every {@link #SWEEP_PERIOD_MS} ms
+ * from the same thread. System property {@value #SWEEP_PROPERTY} set to {@code true} or {@code false}
+ * overrides that choice. Configs are held weakly.
+ * <p>
+ * A file is considered changed after {@link #SETTLE_MS} ms without further events on it,
+ * so a config is not reloaded from a file that is still being written.
+ */
+public final class ConfigWatcher {
+    private static final Logger log = LoggerFactory.getLogger(ConfigWatcher.class);
+    private static final long SWEEP_PERIOD_MS = 500;
+    private static final long SETTLE_MS = 50;
+    private static final String SWEEP_PROPERTY = "zdsb.config.sweep";
+
+    private static volatile ConfigWatcher shared;
+    /**
+     * Set once creating the watcher has failed, so that it is not attempted on every config
+     */
+    private static volatile boolean unavailable = false;
+
+    private final WatchService watchService;
+    private final boolean sweep;
+    private final HashMap<Path, WatchKey> keys = new HashMap<>();
+    private final HashMap<Path, List<WeakReference<ZDSBConfig>>> configs = new HashMap<>();
+    private final HashMap<Path, Long> settling = new HashMap<>();
+
+    private ConfigWatcher(WatchService watchService, boolean sweep) {
+        this.watchService = watchService;
+        this.sweep = sweep;
+
+        final Thread thread = new Thread(this::run, "ConfigWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return shared watcher, or {@code null} if the file system does not support watching
+     */
+    static ConfigWatcher shared() {
+        ConfigWatcher watcher = shared;
+        if (watcher != null || unavailable) return watcher;
+        synchronized (ConfigWatcher.class) {
+            if (shared == null && !unavailable) {
+                try {
+                    shared = new ConfigWatcher(FileSystems.getDefault().newWatchService(), shouldSweep());
+                } catch (IOException | UnsupportedOperationException e) {
+                    unavailable = true;
+                    log.warn("Cannot watch config files, falling back to checking them on read", e);
+                }
+            }
+            return shared;
+        }
+    }
+
+    private static boolean shouldSweep() {
+        final String property = System.getProperty(SWEEP_PROPERTY);
+        if (property != null && !property.isBlank())
+            return Boolean.parseBoolean(property.trim());
+        final String os = System.getProperty("os.name", "").toLowerCase();
+        return !os.contains("linux") && !os.contains("windows");
+    }
+
+    /**
+     * @return {@code false} if the config's directory cannot be watched, so it should check its file itself
+     */
+    synchronized boolean register(ZDSBConfig config) {
+        final File file = config.getConfigFile().getAbsoluteFile();
+        final Path dir = file.getParentFile().toPath();
+        WatchKey key = keys.get(dir);
+        if (key == null || !key.isValid()) {
+            try {
+                key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            } catch (IOException e) {
+                log.warn("Cannot watch config directory {}", dir, e);
+                return false;
+            }
+            keys.put(dir, key);
+        }
+        configs.computeIfAbsent(file.toPath(), k -> new ArrayList<>()).add(new WeakReference<>(config));
+        return true;
+    }
+
+    synchronized void unregister(ZDSBConfig config) {
+        final List<WeakReference<ZDSBConfig>> list = configs.get(config.getConfigFile().getAbsoluteFile().toPath());
+        if (list == null) return;
+        list.removeIf(ref -> ref.get() == null || ref.get() == config);
+        if (list.isEmpty())
+            configs.remove(config.getConfigFile().getAbsoluteFile().toPath());
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                final WatchKey key = watchService.poll(isSettling() ? SETTLE_MS : SWEEP_PERIOD_MS, TimeUnit.MILLISECONDS);
+                if (key != null) handle(key);
+                settle();
+                if (sweep) sweep();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                log.error("Config watcher failed", e);
+            }
+        }
+    }
+
+    private synchronized void handle(WatchKey key) {
+        final Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event: key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                configs.forEach((file, list) -> {
+                    if (file.getParent().equals(dir)) markDirty(list, false);
+                });
+            } else {
+                final Path file = dir.resolve((Path) event.context());
+                if (configs.containsKey(file))
+                    settling.put(file, System.nanoTime());
+            }
+        }
+
+        if (!key.reset()) {
+            // Directory is gone, nothing will come from this key anymore
+            keys.remove(dir);
+            configs.entrySet().removeIf(e -> {
+                if (!e.getKey().getParent().equals(dir)) return false;
+                for (WeakReference<ZDSBConfig> ref: e.getValue()) {
+                    final ZDSBConfig config = ref.get();
+                    if (config != null) config.setWatched(false);
+                }
+                return true;
+            });
+        }
+    }
+
+    private synchronized boolean isSettling() {
+        return !settling.isEmpty();
+    }
+
+    /**
+     * Mark configs of files that had no events for {@link #SETTLE_MS} ms
+     */
+    private synchronized void settle() {
+        final long now = System.nanoTime();
+        settling.entrySet().removeIf(e -> {
+            if (now - e.getValue() < TimeUnit.MILLISECONDS.toNanos(SETTLE_MS)) return false;
+            final List<WeakReference<ZDSBConfig>> list = configs.get(e.getKey());
+            if (list != null) markDirty(list, true);
+            return true;
+        });
+    }
+
+    private synchronized void sweep() {
+        for (List<WeakReference<ZDSBConfig>> list: configs.values())
+            markDirty(list, true);
+    }
+
+    private static void markDirty(List<WeakReference<ZDSBConfig>> list, boolean onlyIfModified) {
+        list.removeIf(ref -> {
+            final ZDSBConfig config = ref.get();
+            if (config == null) return true;
+            if (!onlyIfModified || config.isModifiedOnDisk())
+                config.markDirty();
+            return false;
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package ru.zont.dsbot.core.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind for {@link ZDSBConfig.Entry#setValue(String)}: changes are applied in memory at once,
+ * and the file is written once per {@link #DELAY_MS} ms however many values were set in between.
+ * Pending writes are flushed before a config is reloaded, on {@link #flush()} and on JVM shutdown.
+ */
+public final class ConfigWriter {
+    private static final Logger log = LoggerFactory.getLogger(ConfigWriter.class);
+    private static final long DELAY_MS = 250;
+
+    private static final ConfigWriter shared = new ConfigWriter();
+
+    private final ScheduledExecutorService executor;
+    private final Set<ZDSBConfig> pending = ConcurrentHashMap.newKeySet();
+
+    private ConfigWriter() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "ConfigWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "ConfigWriter-Shutdown"));
+    }
+
+    public static ConfigWriter shared() {
+        return shared;
+    }
+
+    void schedule(ZDSBConfig config) {
+        if (pending.add(config))
+            executor.schedule(() -> write(config), DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a background task of configs, such as {@link ZDSBConfigManager#evictIdle()}, in the writer thread
+     */
+    void execute(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Config task failed", e);
+            }
+        });
+    }
+
+    /**
+     * Write pending changes of the config now, in the calling thread
+     */
+    void flush(ZDSBConfig config) {
+        write(config);
+    }
+
+    /**
+     * Write all pending changes now, in the calling thread
+     */
+    public void flush() {
+        for (ZDSBConfig config: pending)
+            write(config);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void write(ZDSBConfig config) {
+        if (!pending.remove(config)) return;
+        try {
+            config.writeSnapshot();
+        } catch (Exception e) {
+            log.error("Cannot write config {}", config.getConfigFile(), e);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package ru.zont.dsbot.core.config;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.zont.dsbot.core.util.SnowflakeSet;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Overrides of all guild configs in one append-only file of JSON lines: {@code {"guild":"<id>","values":{...}}}.
+ * Every write appends the whole set of overrides of a guild and the last record wins, an empty set removes the guild.
+ * Only offsets of the last records are kept in memory, indexed by guild ID, values are read from the file on demand.
+ * The file is rewritten without stale records when they take more than half of it.
+ * <p>
+ * Select it with {@link ZDSBConfigManager#useGuildStore()}, existing {@code guild-*.properties} files
+ * are imported with {@link ZDSBConfigManager#migrateGuildFiles()}.
+ */
+public class GuildConfigStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(GuildConfigStore.class);
+    public static final String DEFAULT_FILE_NAME = "guilds.jsonl";
+    private static final long COMPACT_MIN_SIZE = 64 * 1024;
+    private static final Gson gson = new Gson();
+    private static final Type VALUES_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+
+    private final Path file;
+    private final HashMap<Long, Span> index = new HashMap<>();
+    private FileChannel channel;
+    private long liveBytes = 0;
+
+    private record Span(long offset, int length) { }
+
+    public GuildConfigStore(File file) throws IOException {
+        this.file = file.toPath();
+        channel = open();
+        scan();
+    }
+
+    private FileChannel open() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Build the index from the file, dropping an incomplete record at its end
+     */
+    private void scan() throws IOException {
+        index.clear();
+        liveBytes = 0;
+        final InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(0)));
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = 0, offset = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            position++;
+            if (b != '\n') {
+                line.write(b);
+                continue;
+            }
+            final JsonObject record = parse(line.toString(StandardCharsets.UTF_8));
+            final long guild = record != null ? SnowflakeSet.parse(record.get("guild").getAsString()) : -1;
+            if (guild >= 0)
+                index(guild, new Span(offset, (int) (position - offset)), record.getAsJsonObject("values").size() == 0);
+            else log.warn("Skipping malformed record at {} in {}", offset, file);
+            line.reset();
+            offset = position;
+        }
+        if (offset < channel.size()) {
+            log.warn("Dropping incomplete record at {} in {}", offset, file);
+            channel.truncate(offset);
+        }
+    }
+
+    @Nullable
+    private static JsonObject parse(String line) {
+        try {
+            final JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+            if (!record.has("guild") || !record.has("values")) return null;
+            return record;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void index(long guild, Span span, boolean removed) {
+        final Span old = removed ? index.remove(guild) : index.put(guild, span);
+        if (old != null) liveBytes -= old.length();
+        if (!removed) liveBytes += span.length();
+    }
+
+    /**
+     * @return stored overrides of the guild, or {@code null} if there are none
+     */
+    @Nullable
+    public synchronized Map<String, String> read(long guildId) throws IOException {
+        final Span span = index.get(guildId);
+        if (span == null) return null;
+        final ByteBuffer buffer = ByteBuffer.allocate(span.length());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, span.offset() + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of " + file);
+        }
+        final JsonObject record = parse(new String(buffer.array(), StandardCharsets.UTF_8));
+        if (record == null)
+            throw new IOException("Malformed record at %d in %s".formatted(span.offset(), file));
+        return gson.fromJson(record.get("values"), VALUES_TYPE);
+    }
+
+    public synchronized void write(long guildId, Map<String, String> values) throws IOException {
+        final boolean removed = values.isEmpty();
+        if (removed && !index.containsKey(guildId)) return;
+
+        final JsonObject record = new JsonObject();
+        record.addProperty("guild", Long.toString(guildId));
+        record.add("values", gson.toJsonTree(values, VALUES_TYPE));
+        final ByteBuffer buffer = ByteBuffer.wrap((gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8));
+
+        final long offset = channel.size();
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining())
+            channel.write(buffer, offset + buffer.position());
+        channel.force(false);
+        index(guildId, new Span(offset, length), removed);
+
+        if (offset + length > COMPACT_MIN_SIZE && liveBytes * 2 < offset + length)
+            compact();
+    }
+
+    /**
+     * Rewrite the file with the last records only, replacing it atomically
+     */
+    public synchronized void compact() throws IOException {
+        final Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                for (Span span: index.values()) {
+                    long transferred = 0;
+                    while (transferred < span.length())
+                        transferred += channel.transferTo(span.offset() + transferred, span.length() - transferred, out);
+                }
+                out.force(false);
+            }
+            channel.close();
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+            if (!channel.isOpen()) {
+                channel = open();
+                scan();
+            }
+        }
+    }
+
+    /**
+     * @return a source for a guild config, see {@link ZDSBConfig#newInstance(Class, String, File, ZDSBConfig, java.util.function.Function, boolean, ConfigSource)}
+     */
+    ConfigSource source(long guildId) {
+        return new ConfigSource() {
+            @Override
+            public Map<String, String> read() throws IOException {
+                return GuildConfigStore.this.read(guildId);
+            }
+
+            @Override
+            public void write(Map<String, String> properties) throws IOException {
+                GuildConfigStore.this.write(guildId, properties);
+            }
+        };
+    }
+
+    /**
+     * @return IDs of guilds that have stored overrides
+     */
+    public synchronized SnowflakeSet getGuildIds() {
+        return SnowflakeSet.of(index.keySet().stream().mapToLong(Long::longValue).toArray());
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public File getFile() {
+        return file.toFile();
+    }
+
+    /**
+     * @return size of the file, including stale records
+     */
+    public synchronized long getFileSize() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "GuildConfigStore{" + file + ", guilds=" + size() + "}";
+    }
+}
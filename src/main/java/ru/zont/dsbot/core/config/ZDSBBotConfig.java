@@ -1,7 +1,10 @@
 package ru.zont.dsbot.core.config;
 
+import ru.zont.dsbot.core.util.SnowflakeSet;
+
 import java.io.File;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 
 public class ZDSBBotConfig extends ZDSBConfig {
@@ -18,27 +21,79 @@ public class ZDSBBotConfig extends ZDSBConfig {
     public Entry allowExecution = new Entry("false");
     public Entry mainGuild = new Entry("331526118635208716");
     public Entry excludedCommands = new Entry();
+    public Entry asyncCommands = new Entry("false");
+    public Entry commandWorkers = new Entry("0");
+    public Entry commandQueueLimit = new Entry("50");
+    public Entry commandQueueOverflow = new Entry("reject");
+    public Entry dbPoolMinSize = new Entry("1");
+    public Entry dbPoolMaxSize = new Entry("10");
+    public Entry dbBorrowTimeoutSeconds = new Entry("30");
+    public Entry dbStatementCacheSize = new Entry("50");
+    public Entry dbWriteBatchSize = new Entry("100");
+    public Entry dbWriteFlushIntervalMs = new Entry("1000");
+    public Entry dbWriteQueueCapacity = new Entry("10000");
+
+    private volatile ApprovedGuilds approvedGuildsCache = null;
 
     public boolean isOperator(String id) {
-        return operators.getValue().contains(id);
+        return operators.toSnowflakeSet().contains(id);
+    }
+
+    public boolean isOperator(long id) {
+        return operators.toSnowflakeSet().contains(id);
     }
 
     public boolean shouldCloneGlobal() {
         return cloneGlobalConfig.isTrue();
     }
 
+    /**
+     * @return whether commands should be executed off the JDA event thread,
+     * so blocking REST calls in them do not delay delivery of other events
+     */
+    public boolean doAsyncCommands() {
+        return asyncCommands.isTrue();
+    }
+
     public String getBotName() {
         return botName.getValue();
     }
 
     public Set<String> getOperators() {
-        return new HashSet<>(operators.toList());
+        return operators.toSet();
     }
 
+    /**
+     * @return immutable set of {@link #approvedGuilds} along with {@link #mainGuild}, cached until the config changes
+     */
     public Set<String> getApprovedGuilds() {
-        HashSet<String> ids = new HashSet<>(approvedGuilds.toList());
-        String mainId = mainGuild.getString();
-        if (mainId != null) ids.add(mainId);
-        return ids;
+        return resolveApprovedGuilds().names();
+    }
+
+    /**
+     * @see #getApprovedGuilds()
+     */
+    public SnowflakeSet getApprovedGuildIds() {
+        return resolveApprovedGuilds().ids();
+    }
+
+    private ApprovedGuilds resolveApprovedGuilds() {
+        final Set<String> approved = approvedGuilds.toSet();
+        final String main = mainGuild.getString();
+        final ApprovedGuilds cached = approvedGuildsCache;
+        if (cached != null && cached.approved() == approved && Objects.equals(cached.main(), main))
+            return cached;
+
+        final HashSet<String> names = new HashSet<>(approved);
+        if (main != null) names.add(main);
+        final ApprovedGuilds computed = new ApprovedGuilds(approved, main, Set.copyOf(names), SnowflakeSet.of(names));
+        approvedGuildsCache = computed;
+        return computed;
     }
+
+    public boolean isApprovedGuild(long id) {
+        return getApprovedGuildIds().contains(id);
+    }
+
+    private record ApprovedGuilds(Set<String> approved, String main, Set<String> names, SnowflakeSet ids) { }
 }
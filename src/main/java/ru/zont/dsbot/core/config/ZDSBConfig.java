@@ -4,6 +4,7 @@ import net.dv8tion.jda.api.entities.MessageChannel;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.zont.dsbot.core.util.SnowflakeSet;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -12,7 +13,14 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -25,12 +33,17 @@ public class ZDSBConfig {
     private final File configFile;
     private final String configName;
     private long loadedTimestampInherited;
-    private long loadedTimestamp;
-    private Properties loadedProperties;
+    private volatile long loadedTimestamp;
     private final ZDSBConfig inherit;
-    private HashMap<String, Entry> fields;
-    
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private Written written = null;
+    private volatile ConfigSource source = null;
+
     private final HashMap<String, Long> observedTimestamps = new HashMap<>();
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private Subscription inheritedSubscription = null;
+    private volatile boolean dirty = true;
+    private volatile boolean watched;
 
     private boolean shouldCloneInherited = false;
     private Function<String, String> commentsGetter;
@@ -55,6 +68,9 @@ public class ZDSBConfig {
                 throw new RuntimeException("Cannot create config parent directories", e);
             }
         }
+
+        final ConfigWatcher watcher = ConfigWatcher.shared();
+        watched = watcher != null && watcher.register(this);
     }
 
     public static <T extends ZDSBConfig> T newInstance(Class<T> klass, String name, File dir, T inherit, Function<String, String> commentsGetter) {
@@ -62,10 +78,19 @@ public class ZDSBConfig {
     }
 
     public static <T extends ZDSBConfig> T newInstance(Class<T> klass, String name, File dir, T inherit, Function<String, String> commentsGetter, boolean shouldCloneInherited) {
+        return newInstance(klass, name, dir, inherit, commentsGetter, shouldCloneInherited, null);
+    }
+
+    /**
+     * @param source where to keep properties instead of the config file, if not {@code null}
+     */
+    static <T extends ZDSBConfig> T newInstance(Class<T> klass, String name, File dir, T inherit, Function<String, String> commentsGetter, boolean shouldCloneInherited, ConfigSource source) {
         T instance;
         try {
             Constructor<T> constructor = klass.getDeclaredConstructor(String.class, File.class, ZDSBConfig.class);
             instance = constructor.newInstance(name, dir, inherit);
+            if (source != null)
+                instance.setSource(source);
             instance.setCommentsGetter(commentsGetter);
             if (shouldCloneInherited)
                 instance.setShouldCloneInherited(true);
@@ -92,38 +117,205 @@ public class ZDSBConfig {
         return res;
     }
 
+    /**
+     * Immutable state of the config. Readers take the current one without locking,
+     * (re)loading and {@link Entry#setValue(String)} build a new one and swap it in.
+     *
+     * @param properties content of the config file
+     * @param values effective values of entries that are not inherited.
+     *               {@code null} for {@link Entry#dontInherit()} entries that are only set in the inherited config
+     * @param entries entries by key, both declared as fields and found in files
+     * @param inherited snapshot of the inherited config that other values are resolved from, it is not copied
+     */
+    private record Snapshot(Map<String, String> properties, Map<String, String> values,
+                            Map<String, Entry> entries, Snapshot inherited, long version,
+                            ConcurrentHashMap<String, Typed> typed) {
+        Snapshot(Map<String, String> properties, Map<String, String> values, Map<String, Entry> entries,
+                 Snapshot inherited, long version) {
+            this(properties, values, entries, inherited, version, new ConcurrentHashMap<>());
+        }
+
+        String value(String key, String defaultValue) {
+            final String value = values.get(key);
+            if (value != null || values.containsKey(key)) return value;
+            return inherited != null ? inherited.value(key, defaultValue) : defaultValue;
+        }
+
+        Snapshot withValue(String key, String value) {
+            final HashMap<String, String> properties = new HashMap<>(this.properties);
+            final HashMap<String, String> values = new HashMap<>(this.values);
+            properties.put(key, value);
+            values.put(key, value);
+            return new Snapshot(Collections.unmodifiableMap(properties), Collections.unmodifiableMap(values),
+                    entries, inherited, version + 1);
+        }
+
+        Snapshot withInherited(Snapshot inherited) {
+            return new Snapshot(properties, values, entries, inherited, version + 1);
+        }
+    }
+
+    /**
+     * Value of an entry converted to other types. Created once per snapshot on first typed read of the entry,
+     * each form is computed on first use. Numbers are parsed as is, or evaluated as a {@link ConfigExpression}
+     * if they cannot be, or are 0 if neither works.
+     */
+    private static final class Typed {
+        private final String value;
+        private final boolean isTrue;
+        private final boolean isFalse;
+        private volatile Numbers numbers = null;
+        private volatile Object compiled = null;
+        private volatile List<String> list = null;
+        private volatile Set<String> set = null;
+        private volatile SnowflakeSet snowflakes = null;
+
+        private record Numbers(int intValue, long longValue, float floatValue, double doubleValue) { }
+
+        Typed(String value) {
+            this.value = value;
+            final String stripped = value == null || value.isBlank() ? null : value.strip();
+            isTrue = stripped != null && TRUE_VALUES.contains(stripped);
+            isFalse = stripped != null && FALSE_VALUES.contains(stripped);
+        }
+
+        Numbers numbers() {
+            Numbers numbers = this.numbers;
+            if (numbers == null) {
+                final Double parsed = parse(Double::parseDouble);
+                final double evaluated = parsed != null ? parsed : evalOrZero();
+                final Integer intValue = parse(Integer::parseInt);
+                final Long longValue = parse(Long::parseLong);
+                final Float floatValue = parse(Float::parseFloat);
+                numbers = new Numbers(
+                        intValue != null ? intValue : (int) (parsed != null ? evalOrZero() : evaluated),
+                        longValue != null ? longValue : (long) (parsed != null ? evalOrZero() : evaluated),
+                        floatValue != null ? floatValue : (float) evaluated,
+                        evaluated);
+                this.numbers = numbers;
+            }
+            return numbers;
+        }
+
+        private <T> T parse(Function<String, T> parser) {
+            if (value == null) return null;
+            try {
+                return parser.apply(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        double eval() {
+            Object compiled = this.compiled;
+            if (compiled == null) {
+                try {
+                    compiled = ConfigExpression.compile(value);
+                } catch (Exception e) {
+                    compiled = new RuntimeException(e);
+                }
+                this.compiled = compiled;
+            }
+            if (compiled instanceof RuntimeException e) throw e;
+            return ((ConfigExpression) compiled).evaluate();
+        }
+
+        private double evalOrZero() {
+            try {
+                return eval();
+            } catch (RuntimeException e) {
+                return 0;
+            }
+        }
+
+        List<String> list() {
+            List<String> list = this.list;
+            if (list == null) {
+                list = value == null || value.isBlank() ? Collections.emptyList() : List.of(value.split(" *, *"));
+                this.list = list;
+            }
+            return list;
+        }
+
+        Set<String> set() {
+            Set<String> set = this.set;
+            if (set == null) {
+                set = Set.copyOf(list());
+                this.set = set;
+            }
+            return set;
+        }
+
+        SnowflakeSet snowflakes() {
+            SnowflakeSet snowflakes = this.snowflakes;
+            if (snowflakes == null) {
+                snowflakes = SnowflakeSet.of(list());
+                this.snowflakes = snowflakes;
+            }
+            return snowflakes;
+        }
+    }
+
+    /**
+     * What is currently in the file, to skip writes that would not change it
+     *
+     * @param header comment lines, without the date line that {@link Properties#store(Writer, String)} adds
+     */
+    private record Written(Map<String, String> properties, List<String> header) { }
+
     protected synchronized void processConfigFields() {
-        loadedProperties = new Properties();
-        if (configFile.isFile()) {
-            try (InputStreamReader reader = new InputStreamReader(new FileInputStream(configFile), StandardCharsets.UTF_8)) {
-                loadedProperties.load(reader);
+        // Pending values must reach the file before it is read again
+        ConfigWriter.shared().flush(this);
+        // Cleared before reading, so a change made during the reload is not lost
+        dirty = false;
+        final Snapshot previous = snapshot.get();
+
+        final HashMap<String, String> properties = new HashMap<>();
+        final ConfigSource source = this.source;
+        if (source != null) {
+            try {
+                final Map<String, String> stored = source.read();
+                if (stored != null) properties.putAll(stored);
+                written = new Written(new HashMap<>(properties), List.of());
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot load config: " + configName, e);
+            }
+        } else if (configFile.isFile()) {
+            try {
+                final String text = Files.readString(configFile.toPath(), StandardCharsets.UTF_8);
+                final Properties loaded = new Properties();
+                loaded.load(new StringReader(text));
+                loaded.forEach((k, v) -> properties.put(k.toString(), v.toString()));
                 loadedTimestamp = configFile.lastModified();
+                written = new Written(new HashMap<>(properties), header(text));
             } catch (IOException e) {
                 throw new RuntimeException("Cannot load config: " + configFile, e);
             }
         }
 
-        HashSet<String> removeEntries = new HashSet<>();
-        HashMap<String, Entry> fields = retrieveEntriesFields();
+        final HashSet<String> removeEntries = new HashSet<>();
+        final HashSet<String> inheritedKeys = new HashSet<>();
+        final HashMap<String, Entry> entries = retrieveEntriesFields();
+        final HashMap<String, String> values = new HashMap<>();
+        entries.forEach((key, entry) -> entry.key = key);
 
         // inherit -> this
-        if (inherit != null) {
-            for (var e : inherit.getEntries().entrySet()) {
+        final Snapshot inherited = inherit != null ? inherit.currentSnapshot() : null;
+        if (inherited != null) {
+            for (var e : inherited.entries().entrySet()) {
                 final String key = e.getKey();
-                Entry entry = e.getValue();
+                final String value = inherited.value(key, null);
                 // FILE not contains entry
-                if (!loadedProperties.containsKey(key)) {
+                if (!properties.containsKey(key)) {
                     // Should inherit entry?
-                    if (!entry.dontInherit()) {
+                    if (!e.getValue().dontInherit()) {
                         if (shouldCloneInherited) {
                             // inherit -> FILE
-                            loadedProperties.setProperty(key, entry.value);
+                            properties.put(key, value);
                         } else {
-                            // inherit -> this
-                            if (fields.containsKey(key))
-                                fields.get(key).value = entry.value;
-                            else
-                                fields.put(key, new Entry(entry.value));
+                            // inherit -> this, resolved through the inherited snapshot
+                            entries.computeIfAbsent(key, k -> dynamicEntry(previous, k, value));
+                            inheritedKeys.add(key);
                         }
                     } else {
                         removeEntries.add(key);
@@ -134,47 +326,320 @@ public class ZDSBConfig {
         }
 
         // defaults -> FILE
-        for (var e : fields.entrySet()) {
-            String key = e.getKey();
-            Entry entry = e.getValue();
-            String fieldValue = entry.value;
-
+        for (var e : entries.entrySet()) {
+            final String key = e.getKey();
             if (removeEntries.contains(key)) {
-                entry.value = null;
+                values.put(key, null);
                 continue;
             }
 
-            if (loadedProperties.containsKey(key))
-                entry.value = loadedProperties.getProperty(key);
-            else if (inherit == null || shouldCloneInherited)
-                loadedProperties.setProperty(key, fieldValue);
+            if (properties.containsKey(key)) {
+                values.put(key, properties.get(key));
+            } else if (!inheritedKeys.contains(key)) {
+                final String previousValue = previous != null ? previous.value(key, null) : null;
+                final String value = previousValue != null ? previousValue : e.getValue().getDefaultValue();
+                values.put(key, value);
+                if (inherit == null || shouldCloneInherited)
+                    properties.put(key, value);
+            }
         }
-        loadedProperties.forEach((k,v) -> {
-            if (!fields.containsKey(k.toString())) {
-                fields.put(k.toString(), new Entry(v.toString()));
+        properties.forEach((k, v) -> {
+            if (!entries.containsKey(k)) {
+                entries.put(k, dynamicEntry(previous, k, v));
+                values.put(k, v);
             }
         });
 
-        storeLoadedProperties();
-        this.fields = fields;
+        final Snapshot loaded = new Snapshot(Collections.unmodifiableMap(properties), Collections.unmodifiableMap(values),
+                Collections.unmodifiableMap(entries), inherited, previous != null ? previous.version() + 1 : 1);
+        writeIfChanged(loaded);
+        publish(previous, loaded);
+    }
+
+    /**
+     * Reuse entry objects for keys that are not declared as fields, so they stay valid between reloads
+     */
+    private Entry dynamicEntry(Snapshot previous, String key, String value) {
+        if (previous != null) {
+            final Entry entry = previous.entries().get(key);
+            if (entry != null) return entry;
+        }
+        final Entry entry = new Entry(value);
+        entry.key = key;
+        entry.dynamic = true;
+        return entry;
+    }
+
+    private Snapshot currentSnapshot() {
+        updateIfNeeded();
+        return peekSnapshot();
+    }
+
+    /**
+     * @return current snapshot without checking for updates, rebased on the current inherited snapshot
+     * if the inherited config has changed in memory since
+     */
+    private Snapshot peekSnapshot() {
+        final Snapshot current = snapshot.get();
+        if (current == null || inherit == null) return current;
+        final Snapshot inherited = inherit.peekSnapshot();
+        if (current.inherited() == inherited || inherited == null) return current;
+        synchronized (this) {
+            final Snapshot latest = snapshot.get();
+            final Snapshot latestInherited = inherit.peekSnapshot();
+            if (latest.inherited() == latestInherited) return latest;
+            final Snapshot rebased = latest.withInherited(latestInherited);
+            publish(latest, rebased);
+            return rebased;
+        }
+    }
+
+    /**
+     * Swap in the next snapshot and notify subscribers of the values that have changed. Called holding the lock,
+     * so changes are published in order.
+     */
+    private void publish(Snapshot previous, Snapshot next) {
+        snapshot.set(next);
+        if (previous == null || subscriptions.isEmpty()) return;
+
+        final HashSet<String> keys = new HashSet<>(next.entries().keySet());
+        keys.addAll(previous.entries().keySet());
+        final ArrayList<ConfigChange> changes = new ArrayList<>();
+        for (String key: keys) {
+            Entry entry = next.entries().get(key);
+            if (entry == null) entry = previous.entries().get(key);
+            final String defaultValue = entry != null && !entry.dynamic ? entry.getDefaultValue() : null;
+            final String oldValue = previous.value(key, defaultValue);
+            final String newValue = next.value(key, defaultValue);
+            if (!Objects.equals(oldValue, newValue))
+                changes.add(new ConfigChange(this, key, oldValue, newValue));
+        }
+        if (!changes.isEmpty())
+            ConfigChangeBus.shared().deliver(List.copyOf(subscriptions), changes);
+    }
+
+    /**
+     * Get notified of every effective change of any value of this config, including inherited ones.
+     * Changes on disk are picked up without waiting for the config to be read.
+     *
+     * @see ConfigChangeBus
+     */
+    public Subscription subscribe(Consumer<ConfigChange> listener) {
+        return subscribe(null, listener);
     }
-    
-    public boolean wasUpdated(String observerTag) {
+
+    private synchronized Subscription subscribe(@Nullable String key, Consumer<ConfigChange> listener) {
+        updateIfNeeded();
+        final Subscription subscription = new Subscription(key, listener);
+        subscriptions.add(subscription);
+        // Inherited changes only reach this config when it is read, so read it when they happen
+        if (inherit != null && inheritedSubscription == null)
+            inheritedSubscription = inherit.subscribe(change -> currentSnapshot());
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+        if (subscriptions.isEmpty() && inheritedSubscription != null) {
+            inheritedSubscription.cancel();
+            inheritedSubscription = null;
+        }
+    }
+
+    /**
+     * Listener of {@link #subscribe(Consumer)} or {@link Entry#subscribe(Consumer)}, until cancelled
+     */
+    public final class Subscription implements AutoCloseable {
+        private final String key;
+        private final Consumer<ConfigChange> listener;
+        private volatile boolean cancelled = false;
+
+        private Subscription(@Nullable String key, Consumer<ConfigChange> listener) {
+            this.key = key;
+            this.listener = listener;
+        }
+
+        void accept(ConfigChange change) {
+            if (!cancelled && (key == null || key.equals(change.key())))
+                listener.accept(change);
+        }
+
+        public void cancel() {
+            cancelled = true;
+            unsubscribe(this);
+        }
+
+        @Override
+        public void close() {
+            cancel();
+        }
+    }
+
+    /**
+     * @return counter of in-memory changes: it is incremented on every (re)load and {@link Entry#setValue(String)}.
+     * Unlike other getters, does not check the file for modifications.
+     */
+    public long getVersion() {
+        final Snapshot current = peekSnapshot();
+        return current != null ? current.version() : 0;
+    }
+
+    /**
+     * @deprecated polls the file and remembers every tag; {@link #subscribe(Consumer)} to changes instead
+     */
+    @Deprecated
+    public synchronized boolean wasUpdated(String observerTag) {
         final long timestamp = observedTimestamps.getOrDefault(observerTag, 0L);
         final long lastModified = configFile.lastModified();
         observedTimestamps.put(observerTag, lastModified);
         return lastModified > timestamp;
     }
 
-    private void storeLoadedProperties() {
-        try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(configFile), StandardCharsets.UTF_8)) {
-            loadedProperties.store(writer, getComments());
+    /**
+     * Write pending changes made by {@link Entry#setValue(String)} now, see {@link ConfigWriter}
+     */
+    public void flush() {
+        ConfigWriter.shared().flush(this);
+    }
+
+    synchronized boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Flush pending changes and stop watching the file, when the config is dropped by {@link ZDSBConfigManager}.
+     * The instance stays usable, it just checks the file on read again. Configs with subscribers are never dropped,
+     * the inherited subscription is cancelled here anyway, so that the inherited config does not keep this one.
+     */
+    void release() {
+        flush();
+        synchronized (this) {
+            if (inheritedSubscription != null) {
+                inheritedSubscription.cancel();
+                inheritedSubscription = null;
+            }
+        }
+        if (source != null) return;
+        final ConfigWatcher watcher = ConfigWatcher.shared();
+        if (watcher != null)
+            watcher.unregister(this);
+        setWatched(false);
+    }
+
+    synchronized void writeSnapshot() {
+        final Snapshot current = peekSnapshot();
+        if (current != null)
+            writeIfChanged(current);
+    }
+
+    /**
+     * Replace the file atomically (temp file + rename), unless it already has the same properties and comments.
+     * With a {@link ConfigSource}, pass it the {@link #overrides(Snapshot)} if they have changed.
+     */
+    private void writeIfChanged(Snapshot snapshot) {
+        final ConfigSource source = this.source;
+        if (source != null) {
+            final Map<String, String> overrides = overrides(snapshot);
+            if (written != null && written.properties().equals(overrides))
+                return;
+            try {
+                source.write(overrides);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot store config: " + configName, e);
+            }
+            written = new Written(overrides, List.of());
+            return;
+        }
+
+        final Map<String, String> properties = snapshot.properties();
+        final Properties toStore = new Properties();
+        toStore.putAll(properties);
+        final StringWriter out = new StringWriter();
+        try {
+            toStore.store(out, getComments());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        final String text = out.toString();
+        final List<String> header = header(text);
+        if (written != null && written.properties().equals(properties) && written.header().equals(header))
+            return;
+
+        final Path target = configFile.toPath();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(target.toAbsolutePath().getParent(), configFile.getName(), ".tmp");
+            Files.writeString(tmp, text, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (IOException e) {
             throw new RuntimeException("Cannot store config: " + configFile, e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) { }
+            }
         }
+        written = new Written(new HashMap<>(properties), header);
         loadedTimestamp = configFile.lastModified();
     }
 
+    /**
+     * @return properties whose values differ from what the config would have without them:
+     * the inherited value, or the default of a declared entry
+     */
+    private static Map<String, String> overrides(Snapshot snapshot) {
+        final HashMap<String, String> res = new HashMap<>();
+        final Snapshot inherited = snapshot.inherited();
+        snapshot.properties().forEach((key, value) -> {
+            final Entry inheritedEntry = inherited != null ? inherited.entries().get(key) : null;
+            final Entry entry = snapshot.entries().get(key);
+            final String base;
+            if (inheritedEntry != null)
+                base = inheritedEntry.dontInherit() ? null : inherited.value(key, null);
+            else if (entry != null && !entry.dynamic)
+                base = entry.getDefaultValue();
+            else base = null;
+            if (!value.equals(base))
+                res.put(key, value);
+        });
+        return res;
+    }
+
+    /**
+     * @return properties that differ from the inherited config, as they would be passed to a {@link ConfigSource}
+     */
+    Map<String, String> getOverrides() {
+        return overrides(currentSnapshot());
+    }
+
+    /**
+     * Keep properties in the source instead of the config file. Changes to the source are expected to be made
+     * only through this config, so the file system is not watched.
+     */
+    void setSource(ConfigSource source) {
+        this.source = source;
+        final ConfigWatcher watcher = ConfigWatcher.shared();
+        if (watcher != null)
+            watcher.unregister(this);
+        watched = true;
+        dirty = true;
+    }
+
+    private static List<String> header(String text) {
+        final ArrayList<String> res = new ArrayList<>();
+        for (String line: text.split("\\R", -1)) {
+            if (!line.startsWith("#") && !line.startsWith("!")) break;
+            res.add(line);
+        }
+        if (!res.isEmpty()) res.remove(res.size() - 1);
+        return res;
+    }
+
     private String getComments() {
         if (commentsGetter != null)
             return commentsGetter.apply(configName);
@@ -188,21 +653,40 @@ public class ZDSBConfig {
     }
 
     public String getValue(String key, String defaultValue) {
-        updateIfNeeded();
-        return loadedProperties.getProperty(key, defaultValue);
+        return currentSnapshot().properties().getOrDefault(key, defaultValue);
     }
 
+    /**
+     * @return copy of the current entries map
+     */
     public HashMap<String, Entry> getEntries() {
-        updateIfNeeded();
-        return fields;
+        return new HashMap<>(currentSnapshot().entries());
     }
 
+    /**
+     * Does not touch the file system if the config is watched by {@link ConfigWatcher}
+     */
     private boolean isUpdateNeeded() {
-        return fields == null
-                || configFile.lastModified() > loadedTimestamp
+        return snapshot.get() == null || dirty
+                || !watched && configFile.lastModified() > loadedTimestamp
                 || inherit != null && (inherit.isUpdateNeeded() || inherit.loadedTimestamp > loadedTimestampInherited);
     }
 
+    void markDirty() {
+        dirty = true;
+        if (!subscriptions.isEmpty())
+            ConfigChangeBus.shared().execute(this::updateIfNeeded);
+    }
+
+    void setWatched(boolean watched) {
+        this.watched = watched;
+        if (!watched) markDirty();
+    }
+
+    boolean isModifiedOnDisk() {
+        return configFile.lastModified() != loadedTimestamp;
+    }
+
     private void updateIfNeeded() {
         if (isUpdateNeeded()) {
             processConfigFields();
@@ -248,10 +732,14 @@ public class ZDSBConfig {
         return checkConfigEntries(predicate, entries);
     }
 
+    /**
+     * View of a config value in the current {@link Snapshot}
+     */
     public class Entry {
         private final String defaultValue;
-        private String value;
         private final boolean dontInherit;
+        private volatile String key = null;
+        private boolean dynamic = false;
 
         public Entry() {
             this("", false);
@@ -262,7 +750,6 @@ public class ZDSBConfig {
         }
 
         public Entry(String defaultValue, boolean dontInherit) {
-            value = defaultValue;
             this.defaultValue = defaultValue;
             this.dontInherit = dontInherit;
         }
@@ -274,7 +761,17 @@ public class ZDSBConfig {
         @Nonnull
         public String getValue() {
             updateIfNeeded();
-            return value;
+            return peekValue();
+        }
+
+        /**
+         * @return value from the current snapshot, without checking for updates
+         */
+        private String peekValue() {
+            final Snapshot current = peekSnapshot();
+            final String key = this.key;
+            if (current == null || key == null) return defaultValue;
+            return current.value(key, defaultValue);
         }
 
         @Nullable
@@ -297,78 +794,62 @@ public class ZDSBConfig {
             return defaultValue;
         }
 
+        /**
+         * @return typed forms of the value in the current snapshot, see {@link Typed}
+         */
+        private Typed typed() {
+            final Snapshot current = currentSnapshot();
+            final String key = this.key;
+            if (current == null || key == null) return new Typed(defaultValue);
+            final Typed typed = current.typed().get(key);
+            if (typed != null) return typed;
+            return current.typed().computeIfAbsent(key, k -> new Typed(current.value(k, defaultValue)));
+        }
+
         public boolean isTrue() {
-            final String string = getString();
-            if (string == null) return false;
-            final String value = string.strip();
-            return TRUE_VALUES.contains(value);
+            return typed().isTrue;
         }
 
         public boolean isFalse() {
-            final String string = getString();
-            if (string == null) return false;
-            final String value = string.strip();
-            return FALSE_VALUES.contains(value);
+            return typed().isFalse;
         }
 
         public int getInt() {
-            try {
-                return Integer.parseInt(getValue());
-            } catch (Exception e) {
-                try {
-                    return (int) eval();
-                } catch (Exception e1) {
-                    return 0;
-                }
-            }
+            return typed().numbers().intValue();
         }
 
         public long getLong() {
-            try {
-                return Long.parseLong(getValue());
-            } catch (Exception e) {
-                try {
-                    return (long) eval();
-                } catch (Exception e1) {
-                    return 0L;
-                }
-            }
+            return typed().numbers().longValue();
         }
 
         public float geFloat() {
-            try {
-                return Float.parseFloat(getValue());
-            } catch (Exception e) {
-                try {
-                    return (float) eval();
-                } catch (Exception e1) {
-                    return 0f;
-                }
-            }
+            return typed().numbers().floatValue();
         }
 
         public double getDouble() {
-            try {
-                return Double.parseDouble(getValue());
-            } catch (Exception e) {
-                try {
-                    return eval();
-                } catch (Exception e1) {
-                    return 0.;
-                }
-            }
+            return typed().numbers().doubleValue();
         }
 
         public double eval() {
-            try {
-                return eval(getValue());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+            return typed().eval();
         }
 
         public List<String> toList() {
-            return toList(" *, *");
+            return typed().list();
+        }
+
+        /**
+         * @return immutable set of {@link #toList()} items, cached until the config changes
+         */
+        public Set<String> toSet() {
+            return typed().set();
+        }
+
+        /**
+         * @return Discord IDs from {@link #toList()}, cached until the config changes. Non-ID items are skipped.
+         */
+        public SnowflakeSet toSnowflakeSet() {
+            return typed().snowflakes();
         }
 
         public List<String> toList(String delim) {
@@ -385,17 +866,28 @@ public class ZDSBConfig {
         }
 
         public void setValue(String value) {
-            for (Map.Entry<String, Entry> e : getEntries().entrySet()) {
-                if (e.getValue() == Entry.this) {
-                    synchronized (ZDSBConfig.this) {
-                        loadedProperties.setProperty(e.getKey(), value);
-                        this.value = value;
-                        storeLoadedProperties();
-                    }
-                    return;
-                }
+            updateIfNeeded();
+            synchronized (ZDSBConfig.this) {
+                final Snapshot current = peekSnapshot();
+                final String key = this.key;
+                if (key == null || current.entries().get(key) != this)
+                    throw new RuntimeException("Cannot find this field in ZDSBConfig " + configName);
+
+                final Snapshot updated = current.withValue(key, value);
+                publish(current, updated);
+                ConfigWriter.shared().schedule(ZDSBConfig.this);
             }
-            throw new RuntimeException("Cannot find this field in ZDSBConfig " + configName);
+        }
+
+        /**
+         * Get notified of every effective change of this entry, see {@link ZDSBConfig#subscribe(Consumer)}
+         */
+        public Subscription subscribe(Consumer<ConfigChange> listener) {
+            updateIfNeeded();
+            final String key = this.key;
+            if (key == null)
+                throw new RuntimeException("Cannot find this field in ZDSBConfig " + configName);
+            return ZDSBConfig.this.subscribe(key, listener);
         }
 
         public void setList(List<? extends CharSequence> list) {
@@ -412,104 +904,20 @@ public class ZDSBConfig {
             if (o == null) return false;
 
             if (o instanceof CharSequence)
-                return o.equals(value);
+                return o.equals(peekValue());
 
             if (getClass() != o.getClass()) return false;
             Entry entry = (Entry) o;
-            return Objects.equals(value, entry.value);
+            return Objects.equals(peekValue(), entry.peekValue());
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(value);
+            return Objects.hash(peekValue());
         }
 
         public static double eval(final String str) {
-            return new Object() {
-                int pos = -1, ch;
-
-                void nextChar() {
-                    ch = (++pos < str.length()) ? str.charAt(pos) : -1;
-                }
-
-                boolean eat(int charToEat) {
-                    while (ch == ' ') nextChar();
-                    if (ch == charToEat) {
-                        nextChar();
-                        return true;
-                    }
-                    return false;
-                }
-
-                double parse() {
-                    nextChar();
-                    double x = parseExpression();
-                    if (pos < str.length()) throw new RuntimeException("Unexpected: " + (char)ch);
-                    return x;
-                }
-
-                // Grammar:
-                // expression = term | expression `+` term | expression `-` term
-                // term = factor | term `*` factor | term `/` factor
-                // factor = `+` factor | `-` factor | `(` expression `)` | number
-                //        | functionName `(` expression `)` | functionName factor
-                //        | factor `^` factor
-
-                double parseExpression() {
-                    double x = parseTerm();
-                    for (;;) {
-                        if      (eat('+')) x += parseTerm(); // addition
-                        else if (eat('-')) x -= parseTerm(); // subtraction
-                        else return x;
-                    }
-                }
-
-                double parseTerm() {
-                    double x = parseFactor();
-                    for (;;) {
-                        if      (eat('*')) x *= parseFactor(); // multiplication
-                        else if (eat('/')) x /= parseFactor(); // division
-                        else return x;
-                    }
-                }
-
-                double parseFactor() {
-                    if (eat('+')) return +parseFactor(); // unary plus
-                    if (eat('-')) return -parseFactor(); // unary minus
-
-                    double x;
-                    int startPos = this.pos;
-                    if (eat('(')) { // parentheses
-                        x = parseExpression();
-                        if (!eat(')')) throw new RuntimeException("Missing ')'");
-                    } else if ((ch >= '0' && ch <= '9') || ch == '.') { // numbers
-                        while ((ch >= '0' && ch <= '9') || ch == '.') nextChar();
-                        x = Double.parseDouble(str.substring(startPos, this.pos));
-                    } else if (ch >= 'a' && ch <= 'z') { // functions
-                        while (ch >= 'a' && ch <= 'z') nextChar();
-                        String func = str.substring(startPos, this.pos);
-                        if (eat('(')) {
-                            x = parseExpression();
-                            if (!eat(')')) throw new RuntimeException("Missing ')' after argument to " + func);
-                        } else {
-                            x = parseFactor();
-                        }
-                        x = switch (func) {
-                            case "sqrt" -> Math.sqrt(x);
-                            case "sin" -> Math.sin(Math.toRadians(x));
-                            case "cos" -> Math.cos(Math.toRadians(x));
-                            case "tan" -> Math.tan(Math.toRadians(x));
-                            default -> throw new RuntimeException("Unknown function: " + func);
-                        };
-                    } else {
-                        throw new RuntimeException("Unexpected: " + (char)ch);
-                    }
-
-                    if (eat('^')) x = Math.pow(x, parseFactor()); // exponentiation
-
-                    return x;
-                }
-            }.parse();
+            return ConfigExpression.compile(str).evaluate();
         }
     }
 }
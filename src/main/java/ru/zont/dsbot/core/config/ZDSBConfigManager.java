@@ -1,16 +1,52 @@
 package ru.zont.dsbot.core.config;
 
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.zont.dsbot.core.util.SnowflakeSet;
+
+import javax.annotation.Nullable;
 import java.io.File;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
+/**
+ * Loads configs on first access and keeps them in a concurrent store. Guild configs that were not accessed
+ * for {@link #setIdleTimeout(Duration) idle timeout} are flushed and dropped, and loaded again when needed.
+ * The global and bot configs, and configs that have {@link ZDSBConfig#subscribe subscribers}, are never evicted.
+ * <p>
+ * Guild configs are kept in {@code guild-<id>.properties} files, or in a single {@link GuildConfigStore}
+ * if one is set with {@link #useGuildStore()}.
+ */
 public class ZDSBConfigManager<A extends ZDSBContextConfig, B extends ZDSBBotConfig> {
+    private static final Logger log = LoggerFactory.getLogger(ZDSBConfigManager.class);
+    private static final String GLOBAL = "global";
+    private static final String GUILD_PREFIX = "guild-";
+    private static final String PROPERTIES_SUFFIX = ".properties";
+
     private final File dir;
     private final Class<A> instClass;
     private final Class<B> botConfigClass;
-    private final HashMap<String, A> configInstanceStore = new HashMap<>();
-    private B botConfig;
-    private Function<String, String> commentsGetter;
+    private final ConcurrentHashMap<String, Slot<A>> configInstanceStore = new ConcurrentHashMap<>();
+    private volatile B botConfig;
+    private volatile Function<String, String> commentsGetter;
+    private volatile long idleTimeoutNanos = 0;
+    private volatile long lastEvictionNanos = System.nanoTime();
+    private volatile GuildConfigStore guildStore = null;
+
+    private static final class Slot<A> {
+        private final A config;
+        private volatile long accessedAt = System.nanoTime();
+
+        private Slot(A config) {
+            this.config = config;
+        }
+    }
 
     @SuppressWarnings("unchecked")
     public ZDSBConfigManager(String path) {
@@ -33,39 +69,214 @@ public class ZDSBConfigManager<A extends ZDSBContextConfig, B extends ZDSBBotCon
                 throw new RuntimeException("Cannot create config dir");
     }
 
-    private A findConfigInst(String name, A inherit, boolean cloneInherited) {
-        if (configInstanceStore.containsKey(name))
-            return configInstanceStore.get(name);
-
-        A instance = ZDSBConfig.newInstance(instClass, name, dir, inherit, commentsGetter, cloneInherited);
-        configInstanceStore.put(name, instance);
-
-        return instance;
+    /**
+     * @param store if not {@code null}, keep the config in it under {@code guildId}
+     */
+    private A findConfigInst(String name, A inherit, boolean cloneInherited, GuildConfigStore store, long guildId) {
+        Slot<A> slot = configInstanceStore.get(name);
+        if (slot == null) {
+            slot = configInstanceStore.computeIfAbsent(name, k -> new Slot<>(ZDSBConfig.newInstance(instClass, k, dir,
+                    inherit, commentsGetter, cloneInherited, store != null ? store.source(guildId) : null)));
+        }
+        slot.accessedAt = System.nanoTime();
+        evictIdleIfDue();
+        return slot.config;
     }
 
+    /**
+     * With a {@link GuildConfigStore}, configs of guilds with valid snowflake IDs are kept in it
+     * and never clone the global config; other IDs still use their own files.
+     */
     public A guildConfig(String id) {
-        return findConfigInst("guild-" + id, globalConfig(), botConfig().shouldCloneGlobal());
+        final GuildConfigStore store = guildStore;
+        final long snowflake = store != null ? SnowflakeSet.parse(id) : -1;
+        if (snowflake < 0)
+            return findConfigInst(GUILD_PREFIX + id, globalConfig(), botConfig().shouldCloneGlobal(), null, -1);
+        return findConfigInst(GUILD_PREFIX + id, globalConfig(), false, store, snowflake);
     }
 
     public A globalConfig() {
-        return findConfigInst("global", null, false);
+        return findConfigInst(GLOBAL, null, false, null, -1);
     }
 
     public B botConfig() {
+        B botConfig = this.botConfig;
         if (botConfig == null) {
-            botConfig = ZDSBConfig.newInstance(botConfigClass, "config", dir, null, commentsGetter);
-            botConfig.setCommentsGetter(commentsGetter);
+            synchronized (this) {
+                botConfig = this.botConfig;
+                if (botConfig == null) {
+                    botConfig = ZDSBConfig.newInstance(botConfigClass, "config", dir, null, commentsGetter);
+                    this.botConfig = botConfig;
+                }
+            }
         }
         return botConfig;
     }
 
+    /**
+     * @param timeout guild configs not accessed for this long are evicted; zero or negative disables eviction
+     */
+    public void setIdleTimeout(Duration timeout) {
+        idleTimeoutNanos = Math.max(0, timeout.toNanos());
+    }
+
+    public Duration getIdleTimeout() {
+        return Duration.ofNanos(idleTimeoutNanos);
+    }
+
+    /**
+     * @return number of configs currently loaded, not counting the bot config
+     */
+    public int getLoadedCount() {
+        return configInstanceStore.size();
+    }
+
+    /**
+     * Evict idle configs at most once per a quarter of the timeout. Accessing a config only checks if it is due,
+     * the scan itself runs in the {@link ConfigWriter} thread.
+     */
+    private void evictIdleIfDue() {
+        final long timeout = idleTimeoutNanos;
+        if (timeout <= 0) return;
+        final long now = System.nanoTime();
+        final long last = lastEvictionNanos;
+        if (now - last < timeout / 4) return;
+        synchronized (configInstanceStore) {
+            if (lastEvictionNanos != last) return;
+            lastEvictionNanos = now;
+        }
+        ConfigWriter.shared().execute(this::evictIdle);
+    }
+
+    /**
+     * Flush and drop guild configs that were not accessed for the idle timeout and have no subscribers
+     *
+     * @return number of evicted configs
+     */
+    public int evictIdle() {
+        final long timeout = idleTimeoutNanos;
+        if (timeout <= 0) return 0;
+        final long now = System.nanoTime();
+        int evicted = 0;
+        for (var e: configInstanceStore.entrySet()) {
+            final Slot<A> slot = e.getValue();
+            if (GLOBAL.equals(e.getKey()) || now - slot.accessedAt < timeout || slot.config.hasSubscribers()) continue;
+            if (configInstanceStore.remove(e.getKey(), slot)) {
+                // Subscribed in between, keep it unless it is already loaded again
+                if (slot.config.hasSubscribers() && configInstanceStore.putIfAbsent(e.getKey(), slot) == null)
+                    continue;
+                slot.config.release();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Keep guild configs in {@link GuildConfigStore#DEFAULT_FILE_NAME} in the config dir
+     */
+    public GuildConfigStore useGuildStore() {
+        try {
+            setGuildStore(new GuildConfigStore(new File(dir, GuildConfigStore.DEFAULT_FILE_NAME)));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open guild config store", e);
+        }
+        return guildStore;
+    }
+
+    /**
+     * @param store where to keep guild configs, or {@code null} to use their own files.
+     *              Affects guild configs that are loaded after the call.
+     */
+    public void setGuildStore(@Nullable GuildConfigStore store) {
+        guildStore = store;
+    }
+
+    @Nullable
+    public GuildConfigStore getGuildStore() {
+        return guildStore;
+    }
+
+    /**
+     * Move guild configs from {@code guild-<id>.properties} files to the {@link GuildConfigStore}.
+     * Only values that differ from the global config are stored. Migrated files are renamed
+     * to {@code *.properties.migrated} untouched, and read from a temporary copy, since loading a config
+     * rewrites its file. Running this again only picks up new files.
+     *
+     * @return number of migrated files
+     */
+    public int migrateGuildFiles() {
+        final GuildConfigStore store = guildStore;
+        if (store == null)
+            throw new IllegalStateException("Guild config store is not set");
+        final File[] files = dir.listFiles((d, name) -> name.startsWith(GUILD_PREFIX) && name.endsWith(PROPERTIES_SUFFIX));
+        if (files == null) return 0;
+
+        final A global = globalConfig();
+        final File copies;
+        try {
+            copies = Files.createTempDirectory(dir.toPath(), "migrating-").toFile();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot create a directory for guild configs being migrated", e);
+        }
+        int migrated = 0;
+        try {
+            for (File file: files) {
+                final String name = file.getName();
+                final String id = name.substring(GUILD_PREFIX.length(), name.length() - PROPERTIES_SUFFIX.length());
+                final long snowflake = SnowflakeSet.parse(id);
+                if (snowflake < 0) continue;
+
+                final Slot<A> loaded = configInstanceStore.remove(GUILD_PREFIX + id);
+                if (loaded != null) loaded.config.release();
+                final Path backup = new File(dir, name + ".migrated").toPath();
+                try {
+                    Files.move(file.toPath(), backup, StandardCopyOption.REPLACE_EXISTING);
+                    Files.copy(backup, copies.toPath().resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                    final A fileConfig = ZDSBConfig.newInstance(instClass, GUILD_PREFIX + id, copies, global, null);
+                    try {
+                        store.write(snowflake, fileConfig.getOverrides());
+                    } finally {
+                        fileConfig.release();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    try {
+                        if (!file.exists() && Files.exists(backup))
+                            Files.move(backup, file.toPath());
+                    } catch (IOException re) {
+                        e.addSuppressed(re);
+                    }
+                    throw new RuntimeException("Cannot migrate guild config: " + file, e);
+                }
+                migrated++;
+            }
+        } finally {
+            FileUtils.deleteQuietly(copies);
+        }
+        if (migrated > 0)
+            log.info("Migrated {} guild configs to {}", migrated, store.getFile());
+        return migrated;
+    }
+
+    /**
+     * Write pending config changes now, e.g. before shutdown
+     */
+    public void flush() {
+        final B botConfig = this.botConfig;
+        if (botConfig != null)
+            botConfig.flush();
+        for (Slot<A> slot: configInstanceStore.values())
+            slot.config.flush();
+    }
+
     public void setCommentsGetter(Function<String, String> commentsGetter) {
         this.commentsGetter = commentsGetter;
 
+        final B botConfig = this.botConfig;
         if (botConfig != null)
             botConfig.setCommentsGetter(commentsGetter);
 
-        for (A inst: configInstanceStore.values())
-            inst.setCommentsGetter(commentsGetter);
+        for (Slot<A> slot: configInstanceStore.values())
+            slot.config.setCommentsGetter(commentsGetter);
     }
 }
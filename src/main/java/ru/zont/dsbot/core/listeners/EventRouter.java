@@ -0,0 +1,111 @@
+package ru.zont.dsbot.core.listeners;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.zont.dsbot.core.GuildContext;
+import ru.zont.dsbot.core.ZDSBot;
+import ru.zont.dsbot.core.util.EventAccessor;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single bot-wide JDA listener. Resolves the guild of each event once and hands it
+ * to listeners of the owning {@link GuildContext} only, so the cost of an event
+ * does not depend on the count of guilds. Events without a guild go to the global listeners.
+ * <p>
+ * Event classes that no registered listener is interested in
+ * (see {@link GuildListenerAdapter#getTypes()}) are dropped before any guild lookup.
+ */
+public class EventRouter implements EventListener {
+    private static final Logger log = LoggerFactory.getLogger(EventRouter.class);
+
+    private final ZDSBot bot;
+    private final ListenerIndex globalListeners = new ListenerIndex();
+    private volatile TypeFilter filter = new TypeFilter(Set.of());
+
+    public EventRouter(ZDSBot bot) {
+        this.bot = bot;
+    }
+
+    /**
+     * Start delivering events to the listener: into its {@link GuildContext}'s index,
+     * or into the global one if it has no context.
+     */
+    public void addListener(GuildListenerAdapter listener) {
+        final GuildContext context = listener.getContext();
+        if (context != null)
+            context.getListenerIndex().add(listener);
+        else globalListeners.add(listener);
+        acceptTypes(listener.getTypes());
+    }
+
+    public List<GuildListenerAdapter> getGlobalListeners() {
+        return globalListeners.getListeners();
+    }
+
+    @Override
+    public void onEvent(@NotNull GenericEvent event) {
+        final Class<? extends GenericEvent> eventClass = event.getClass();
+        if (!filter.accepts(eventClass)) return;
+
+        final Guild guild = EventAccessor.guildOf(event);
+        final ListenerIndex index;
+        if (guild != null) {
+            final GuildContext context = bot.getGuildContext(guild.getId());
+            if (context == null) return;
+            index = context.getListenerIndex();
+        } else index = globalListeners;
+
+        for (GuildListenerAdapter listener: index.get(eventClass))
+            dispatch(listener, guild, event);
+    }
+
+    private synchronized void acceptTypes(Set<Class<? extends GenericEvent>> types) {
+        final TypeFilter current = filter;
+        if (current.types == null || types != null && current.types.containsAll(types))
+            return;
+
+        if (types == null) {
+            filter = new TypeFilter(null);
+        } else {
+            final HashSet<Class<? extends GenericEvent>> union = new HashSet<>(current.types);
+            union.addAll(types);
+            filter = new TypeFilter(union);
+        }
+    }
+
+    private static void dispatch(GuildListenerAdapter listener, Guild guild, GenericEvent event) {
+        try {
+            listener.dispatch(guild, event);
+        } catch (Throwable t) {
+            log.error(listener.formatLog("Uncaught exception in GuildListener %s", listener.getClass().getName()), t);
+        }
+    }
+
+    /**
+     * Union of event types of all registered listeners, {@code null} if anyone accepts all events
+     */
+    private static final class TypeFilter {
+        private final Set<Class<? extends GenericEvent>> types;
+        private final ConcurrentHashMap<Class<?>, Boolean> accepted = new ConcurrentHashMap<>();
+
+        private TypeFilter(Set<Class<? extends GenericEvent>> types) {
+            this.types = types;
+        }
+
+        boolean accepts(Class<? extends GenericEvent> eventClass) {
+            if (types == null) return true;
+            final Boolean res = accepted.get(eventClass);
+            if (res != null) return res;
+            return accepted.computeIfAbsent(eventClass,
+                    c -> types.stream().anyMatch(t -> t.isAssignableFrom(eventClass)));
+        }
+    }
+}
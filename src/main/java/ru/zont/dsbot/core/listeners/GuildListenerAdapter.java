@@ -14,9 +14,8 @@ import ru.zont.dsbot.core.GuildContext;
 import ru.zont.dsbot.core.ZDSBot;
 import ru.zont.dsbot.core.config.ZDSBContextConfig;
 import ru.zont.dsbot.core.config.ZDSBBotConfig;
+import ru.zont.dsbot.core.util.EventAccessor;
 
-import java.lang.reflect.InvocationTargetException;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -44,6 +43,17 @@ public abstract class GuildListenerAdapter implements EventListener {
 
     public abstract void onEvent(Guild guild, GenericEvent event);
 
+    /**
+     * Called when the context of this listener is disposed, after the listener stopped receiving events.
+     * Release timers, threads and other resources here.
+     */
+    public void dispose() {
+    }
+
+    /**
+     * Event types this listener is interested in, including their subtypes. {@code null} means all events.
+     * Read once when the listener is registered in {@link EventRouter}, so it must not change afterwards.
+     */
     public Set<Class<? extends GenericEvent>> getTypes() {
         return null;
     }
@@ -64,34 +74,50 @@ public abstract class GuildListenerAdapter implements EventListener {
     public final void onEvent(@NotNull GenericEvent event) {
         if (doIgnoreEvents()) return;
 
-        final Class<? extends @NotNull GenericEvent> clazz = event.getClass();
-        if (getContext() != null && Arrays.stream(clazz.getMethods()).noneMatch(m -> "getGuild".equals(m.getName())))
+        final EventAccessor accessor = EventAccessor.of(event);
+        if (getContext() != null && !accessor.hasGuild())
             return;
 
-        final Set<Class<? extends GenericEvent>> types = getTypes();
-        if (types != null && !types.contains(event.getClass()))
-            if (types.stream().noneMatch(e -> e.isInstance(event)))
-                return;
-
-        if (getContext() == null && event instanceof final MessageReceivedEvent e)
-            if (!e.isFromType(ChannelType.PRIVATE))
-                return;
-
-        try {
-            final Object guildObj = clazz.getMethod("getGuild").invoke(event);
-            if (guildObj instanceof final Guild guild) {
-                if (getContext() != null && guild.getId().equals(getContext().getGuildId())) {
-                    // Guild object found and this is our GuildContext's guild
-                    onEvent(guild, event);
-                }
-                return;
+        if (!isAccepted(event))
+            return;
+
+        final Guild guild = accessor.getGuild(event);
+        if (guild != null) {
+            if (getContext() != null && guild.getId().equals(getContext().getGuildId())) {
+                // Guild object found and this is our GuildContext's guild
+                onEvent(guild, event);
             }
-        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException ignored) { } // Not a guild containing event
+            return;
+        }
 
         if (getContext() == null)
             onEvent(null, event);
     }
 
+    /**
+     * Entry point for {@link EventRouter}, which has already resolved the guild of the event,
+     * routed it to this listener's context and matched it against {@link #getTypes()}.
+     */
+    final void dispatch(Guild guild, GenericEvent event) {
+        if (doIgnoreEvents()) return;
+        if (isGuildMessageForGlobal(event)) return;
+        onEvent(guild, event);
+    }
+
+    private boolean isAccepted(GenericEvent event) {
+        final Set<Class<? extends GenericEvent>> types = getTypes();
+        if (types != null && !types.contains(event.getClass()))
+            if (types.stream().noneMatch(e -> e.isInstance(event)))
+                return false;
+
+        return !isGuildMessageForGlobal(event);
+    }
+
+    private boolean isGuildMessageForGlobal(GenericEvent event) {
+        return getContext() == null && event instanceof final MessageReceivedEvent e
+                && !e.isFromType(ChannelType.PRIVATE);
+    }
+
     public final void onEachGuild(Consumer<GuildContext> action) {
         getBot().getGuildContexts().forEach(action);
     }
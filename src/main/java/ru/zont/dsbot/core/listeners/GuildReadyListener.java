@@ -1,6 +1,7 @@
 package ru.zont.dsbot.core.listeners;
 
 import net.dv8tion.jda.api.events.ReadyEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
 import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.jetbrains.annotations.NotNull;
@@ -19,8 +20,13 @@ public class GuildReadyListener extends ListenerAdapter {
         bot.updateGuildContext(event.getGuild());
     }
 
+    @Override
+    public void onGuildLeave(@NotNull GuildLeaveEvent event) {
+        bot.removeGuildContext(event.getGuild().getId());
+    }
+
     @Override
     public void onReady(@NotNull ReadyEvent event) {
-        bot.getJda().addEventListener(new CommandListener(bot));
+        bot.getEventRouter().addListener(new CommandListener(bot));
     }
 }
@@ -0,0 +1,83 @@
+package ru.zont.dsbot.core.listeners;
+
+import net.dv8tion.jda.api.events.GenericEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of listeners indexed by concrete event class. {@link GuildListenerAdapter#getTypes()} is read once
+ * on {@link #add(GuildListenerAdapter)}, supertypes are resolved once per new event class,
+ * so finding the listeners of an event is a single map lookup.
+ * Reads are lock-free; each {@code add} or {@code clear} publishes a new snapshot.
+ */
+public final class ListenerIndex {
+    private static final GuildListenerAdapter[] EMPTY = new GuildListenerAdapter[0];
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+
+    public synchronized void add(GuildListenerAdapter listener) {
+        final ArrayList<Registered> registered = new ArrayList<>(snapshot.registered);
+        final Set<Class<? extends GenericEvent>> types = listener.getTypes();
+        registered.add(new Registered(listener, types != null ? Set.copyOf(types) : null));
+        snapshot = new Snapshot(registered);
+    }
+
+    /**
+     * Remove all listeners
+     *
+     * @return removed listeners
+     */
+    public synchronized List<GuildListenerAdapter> clear() {
+        final List<GuildListenerAdapter> removed = getListeners();
+        snapshot = new Snapshot(Collections.emptyList());
+        return removed;
+    }
+
+    public GuildListenerAdapter[] get(Class<? extends GenericEvent> eventClass) {
+        return snapshot.get(eventClass);
+    }
+
+    public List<GuildListenerAdapter> getListeners() {
+        return snapshot.registered.stream().map(Registered::listener).toList();
+    }
+
+    public boolean isEmpty() {
+        return snapshot.registered.isEmpty();
+    }
+
+    private record Registered(GuildListenerAdapter listener, Set<Class<? extends GenericEvent>> types) {
+        boolean accepts(Class<? extends GenericEvent> eventClass) {
+            if (types == null || types.contains(eventClass)) return true;
+            for (Class<? extends GenericEvent> type: types)
+                if (type.isAssignableFrom(eventClass)) return true;
+            return false;
+        }
+    }
+
+    private static final class Snapshot {
+        private final List<Registered> registered;
+        private final ConcurrentHashMap<Class<? extends GenericEvent>, GuildListenerAdapter[]> byType = new ConcurrentHashMap<>();
+
+        private Snapshot(List<Registered> registered) {
+            this.registered = registered;
+        }
+
+        GuildListenerAdapter[] get(Class<? extends GenericEvent> eventClass) {
+            final GuildListenerAdapter[] res = byType.get(eventClass);
+            if (res != null) return res;
+            return byType.computeIfAbsent(eventClass, this::resolve);
+        }
+
+        private GuildListenerAdapter[] resolve(Class<? extends GenericEvent> eventClass) {
+            final GuildListenerAdapter[] res = registered.stream()
+                    .filter(r -> r.accepts(eventClass))
+                    .map(Registered::listener)
+                    .toArray(GuildListenerAdapter[]::new);
+            return res.length > 0 ? res : EMPTY;
+        }
+    }
+}
@@ -8,6 +8,8 @@ import ru.zont.dsbot.core.GuildContext;
 import ru.zont.dsbot.core.ZDSBot;
 
 import javax.annotation.OverridingMethodsMustInvokeSuper;
+import java.util.Collections;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -17,8 +19,23 @@ public abstract class WatcherAdapter extends GuildListenerAdapter {
 
     private static int globalIdx = 0;
 
-    @SuppressWarnings("FieldCanBeLocal")
+    private static final ClassValue<Boolean> handlesEvents = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                if (type.getMethod("onEvent", Guild.class, GenericEvent.class).getDeclaringClass() == WatcherAdapter.class)
+                    return false;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+            log.warn("Watcher {} handles events but does not override getTypes(), so it receives all of them",
+                    type.getName());
+            return true;
+        }
+    };
+
     private Timer timer;
+    private boolean disposed = false;
     public WatcherAdapter(ZDSBot bot, GuildContext context) {
         super(bot, context);
     }
@@ -31,7 +48,8 @@ public abstract class WatcherAdapter extends GuildListenerAdapter {
 
     @OverridingMethodsMustInvokeSuper
     @Override
-    public boolean init(Guild guild) {
+    public synchronized boolean init(Guild guild) {
+        if (disposed) return false;
         globalIdx++;
         final long period = getPeriod();
         if (period < DEFAULT_PERIOD)
@@ -54,6 +72,25 @@ public abstract class WatcherAdapter extends GuildListenerAdapter {
         return true;
     }
 
+    /**
+     * Stop the timer, {@link #update()} is not called afterwards
+     */
+    @OverridingMethodsMustInvokeSuper
+    @Override
+    public synchronized void dispose() {
+        disposed = true;
+        if (timer != null) timer.cancel();
+    }
+
+    /**
+     * Watchers are timer-driven and receive no events, unless they override {@link #onEvent(Guild, GenericEvent)}:
+     * then they receive all events, as other listeners do. Override along with it to receive only some.
+     */
+    @Override
+    public Set<Class<? extends GenericEvent>> getTypes() {
+        return handlesEvents.get(getClass()) ? null : Collections.emptySet();
+    }
+
     @Override
     public void onEvent(Guild guild, GenericEvent event) { }
 }
@@ -1,88 +1,668 @@
 package ru.zont.dsbot.core.util;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.sql.*;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class DBConnectionHandler {
+/**
+ * Pool of at most {@link Settings#maxSize()} connections. Borrowers wait for a free connection in order of arrival,
+ * up to {@link Settings#borrowTimeout()}. A connection is validated on borrow only if it was idle longer than
+ * {@link Settings#validateAfterIdle()}, and on return if its borrower ran into an error. Idle connections
+ * above {@link Settings#minSize()} are closed in background after {@link Settings#idleTimeout()}, broken ones
+ * are dropped.
+ * <p>
+ * Connections are always returned to the pool, even if the callback throws. To hold a connection for several
+ * statements, use {@link #borrow()} in try-with-resources.
+ * <p>
+ * Each connection keeps up to {@link Settings#statementCacheSize()} prepared statements, least recently used
+ * ones are closed, but never while a borrower holds them. {@code withPrepStatement} and {@link Lease#prepareStatement(String)}
+ * take statements from this cache, so they must not be closed by the caller; their parameters and batches
+ * are cleared when they are released.
+ * <p>
+ * Writes that do not need to be done at once can be queued with {@link #enqueueWrite(String, Object...)}.
+ * They are executed in background as JDBC batches in one transaction, see {@link BatchSettings}. A pool that is
+ * still open when the JVM exits is {@link #close() closed} by a shutdown hook, so queued writes are not lost.
+ */
+public class DBConnectionHandler implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DBConnectionHandler.class);
     private static final int CHECK_TIMEOUT = 10;
-    private final String conString;
 
-    private final ArrayList<Connection> pool = new ArrayList<>(10);
+    private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "DBConnectionHandler-Evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param minSize connections kept open even if idle
+     * @param maxSize connections open at most, borrowed and idle
+     * @param borrowTimeout how long to wait for a free connection before {@link SQLTransientConnectionException}
+     * @param validateAfterIdle connections idle longer than this are checked with {@link Connection#isValid(int)} on borrow
+     * @param idleTimeout connections above {@code minSize} idle longer than this are closed
+     * @param statementCacheSize prepared statements cached per connection, zero disables the cache
+     * @param batch settings of {@link #enqueueWrite(String, Object...)}
+     */
+    public record Settings(int minSize, int maxSize, Duration borrowTimeout, Duration validateAfterIdle, Duration idleTimeout,
+                           int statementCacheSize, BatchSettings batch) {
+        public static final Settings DEFAULT = new Settings(1, 10,
+                Duration.ofSeconds(30), Duration.ofSeconds(30), Duration.ofMinutes(10), 50, BatchSettings.DEFAULT);
+
+        public Settings {
+            if (maxSize < 1 || minSize < 0 || minSize > maxSize)
+                throw new IllegalArgumentException("Invalid pool size: min %d, max %d".formatted(minSize, maxSize));
+            if (statementCacheSize < 0)
+                throw new IllegalArgumentException("Invalid statement cache size: " + statementCacheSize);
+        }
+
+        public Settings withSize(int minSize, int maxSize) {
+            return new Settings(minSize, maxSize, borrowTimeout, validateAfterIdle, idleTimeout, statementCacheSize, batch);
+        }
+
+        public Settings withBorrowTimeout(Duration borrowTimeout) {
+            return new Settings(minSize, maxSize, borrowTimeout, validateAfterIdle, idleTimeout, statementCacheSize, batch);
+        }
+
+        public Settings withStatementCacheSize(int statementCacheSize) {
+            return new Settings(minSize, maxSize, borrowTimeout, validateAfterIdle, idleTimeout, statementCacheSize, batch);
+        }
+
+        public Settings withBatch(BatchSettings batch) {
+            return new Settings(minSize, maxSize, borrowTimeout, validateAfterIdle, idleTimeout, statementCacheSize, batch);
+        }
+    }
+
+    /**
+     * @param batchSize queued writes are executed once this many are pending, at most this many per transaction
+     * @param flushInterval queued writes are executed at least this often
+     * @param queueCapacity {@link #enqueueWrite(String, Object...)} blocks while this many writes are pending,
+     *                      up to {@link Settings#borrowTimeout()}
+     */
+    public record BatchSettings(int batchSize, Duration flushInterval, int queueCapacity) {
+        public static final BatchSettings DEFAULT = new BatchSettings(100, Duration.ofSeconds(1), 10000);
+
+        public BatchSettings {
+            if (batchSize < 1 || queueCapacity < 1)
+                throw new IllegalArgumentException("Invalid batch size %d or queue capacity %d".formatted(batchSize, queueCapacity));
+        }
+    }
+
+    private record Write(String sql, Object[] params, CompletableFuture<Void> result) { }
+
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final Settings settings;
+    private final Semaphore permits;
+    private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+    private final ScheduledFuture<?> eviction;
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final LinkedBlockingQueue<Write> writes;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+    private volatile ScheduledExecutorService writer = null;
+    private volatile boolean writesClosed = false;
+    private volatile boolean closed = false;
+    private final Thread shutdownHook = new Thread(this::close, "DBConnectionHandler-Shutdown");
+
+    private record Idle(Pooled pooled, long since) { }
+
+    /**
+     * Connection with its statement cache, used by one borrower at a time
+     */
+    private final class Pooled {
+        private final Connection connection;
+        private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+        /**
+         * Statements handed out to the current borrower, they are never evicted
+         */
+        private final Set<PreparedStatement> checkedOut = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private Pooled(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * @return cached statement, or a new one. If the cached one is already checked out, for example by a query
+         * nested in iteration over its own results, the new one is not cached and is closed on release.
+         */
+        private PreparedStatement prepare(String sql) throws SQLException {
+            final PreparedStatement st;
+            final PreparedStatement cached = settings.statementCacheSize() > 0 ? statements.get(sql) : null;
+            final boolean busy = cached != null && checkedOut.contains(cached);
+            if (cached != null && !busy && !cached.isClosed()) {
+                statementHits.incrementAndGet();
+                st = cached;
+            } else {
+                statementMisses.incrementAndGet();
+                st = connection.prepareStatement(sql);
+            }
+            checkedOut.add(st);
+            if (st != cached && !busy && settings.statementCacheSize() > 0) {
+                statements.put(sql, st);
+                trim();
+            }
+            return st;
+        }
+
+        /**
+         * Make the statement ready for the next borrower, or close it if it is not cached or may be broken.
+         * Call {@link #trim()} afterwards.
+         */
+        private void release(String sql, PreparedStatement st, boolean failed) {
+            checkedOut.remove(st);
+            // Not get(), that would change the order of eviction
+            if (!failed && statements.containsValue(st)) {
+                try {
+                    st.clearParameters();
+                    st.clearBatch();
+                    return;
+                } catch (SQLException ignored) { }
+            }
+            statements.remove(sql, st);
+            closeQuietly(st);
+        }
+
+        /**
+         * Close least recently used statements that are not checked out, down to the cache size
+         */
+        private void trim() {
+            final Iterator<PreparedStatement> it = statements.values().iterator();
+            while (statements.size() > settings.statementCacheSize() && it.hasNext()) {
+                final PreparedStatement st = it.next();
+                if (checkedOut.contains(st)) continue;
+                it.remove();
+                closeQuietly(st);
+            }
+        }
+    }
 
     public DBConnectionHandler(String conString) throws SQLException {
-        this.conString = conString;
+        this(conString, Settings.DEFAULT);
     }
 
-    public <T> T withPrepStatement(String query, SqlPreparedStatementFunction<T> function) {
+    public DBConnectionHandler(String conString, Settings settings) throws SQLException {
+        this(() -> DriverManager.getConnection(conString), settings);
+    }
+
+    public DBConnectionHandler(ConnectionFactory factory, Settings settings) throws SQLException {
+        this.factory = factory;
+        this.settings = settings;
+        permits = new Semaphore(settings.maxSize(), true);
+        writes = new LinkedBlockingQueue<>(settings.batch().queueCapacity());
+        fill();
+        final long period = Math.max(1000, Math.min(settings.idleTimeout().toMillis(), settings.validateAfterIdle().toMillis()) / 2);
+        eviction = evictor.scheduleWithFixedDelay(this::evictSafely, period, period, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Borrowed connection, returned to the pool on {@link #close()}
+     */
+    public final class Lease implements AutoCloseable {
+        private final Pooled pooled;
+        private final IdentityHashMap<PreparedStatement, String> statements = new IdentityHashMap<>();
+        private boolean returned = false;
+        private boolean failed = false;
+
+        private Lease(Pooled pooled) {
+            this.pooled = pooled;
+        }
+
+        public Connection getConnection() {
+            if (returned)
+                throw new IllegalStateException("Connection is already returned");
+            return pooled.connection;
+        }
+
+        /**
+         * @return statement of this connection, possibly cached. It must not be closed by the caller:
+         * it is released when the lease is closed, with its parameters and batch cleared.
+         */
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            if (returned)
+                throw new IllegalStateException("Connection is already returned");
+            final PreparedStatement st = pooled.prepare(sql);
+            statements.put(st, sql);
+            return st;
+        }
+
+        /**
+         * Release the statement before the lease is closed
+         *
+         * @param failed whether the statement may be broken, then it is closed instead of being kept in the cache
+         */
+        private void release(PreparedStatement st, boolean failed) {
+            final String sql = statements.remove(st);
+            if (sql == null) return;
+            if (failed) this.failed = true;
+            pooled.release(sql, st, failed);
+            pooled.trim();
+        }
+
+        /**
+         * Mark the connection as possibly broken, for example after an {@link SQLException}.
+         * It is validated when the lease is closed and dropped if it is not valid anymore.
+         */
+        public void markFailed() {
+            failed = true;
+        }
+
+        @Override
+        public void close() {
+            if (returned) return;
+            returned = true;
+            statements.forEach((st, sql) -> pooled.release(sql, st, false));
+            statements.clear();
+            pooled.trim();
+            giveBack(pooled, failed);
+        }
+    }
+
+    /**
+     * @throws SQLTransientConnectionException if no connection got free in {@link Settings#borrowTimeout()}
+     */
+    public Lease borrow() throws SQLException {
+        if (closed)
+            throw new SQLNonTransientConnectionException("Connection pool is closed");
+        try {
+            if (!permits.tryAcquire(settings.borrowTimeout().toNanos(), TimeUnit.NANOSECONDS))
+                throw new SQLTransientConnectionException("Timed out waiting for a connection, pool size %d".formatted(settings.maxSize()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+        }
+        try {
+            return new Lease(takeConnection());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Pooled takeConnection() throws SQLException {
+        final long validateAfter = settings.validateAfterIdle().toNanos();
+        Idle candidate;
+        while ((candidate = pollIdle()) != null) {
+            if (System.nanoTime() - candidate.since() < validateAfter || isValid(candidate.pooled()))
+                return candidate.pooled();
+            closeQuietly(candidate.pooled());
+        }
+        return new Pooled(factory.create());
+    }
+
+    private synchronized Idle pollIdle() {
+        return idle.pollLast();
+    }
+
+    /**
+     * @param failed whether the borrower has seen errors, then the connection is validated before it is kept.
+     *               Otherwise the most recently returned connection, which is borrowed first, would skip validation
+     *               for as long as the pool is busy.
+     */
+    private void giveBack(Pooled pooled, boolean failed) {
         try {
-            Connection con = getConnection();
-            PreparedStatement st = con.prepareStatement(query);
-            T res = function.apply(st);
-            st.close();
-            releaseConnection(con);
-            return res;
+            if (closed || pooled.connection.isClosed() || failed && !isValid(pooled)) {
+                closeQuietly(pooled);
+                return;
+            }
+            synchronized (this) {
+                idle.addLast(new Idle(pooled, System.nanoTime()));
+            }
+        } catch (SQLException e) {
+            closeQuietly(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public <T> T withPrepStatement(String query, SqlPreparedStatementFunction<T> function) {
+        try (Lease lease = borrow()) {
+            final PreparedStatement st = lease.prepareStatement(query);
+            boolean failed = true;
+            try {
+                final T res = function.apply(st);
+                failed = false;
+                return res;
+            } finally {
+                lease.release(st, failed);
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
     public <T> T withStatement(SqlStatementFunction<T> function) {
-        try {
-            Connection con = getConnection();
-            Statement st = con.createStatement();
-            T res = function.apply(st);
-            st.close();
-            releaseConnection(con);
-            return res;
+        try (Lease lease = borrow()) {
+            try (Statement st = lease.getConnection().createStatement()) {
+                return function.apply(st);
+            } catch (SQLException e) {
+                lease.markFailed();
+                throw e;
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
     public void withPrepStatement(String query, SqlPreparedStatementSupplier function) {
-        try {
-            Connection con = getConnection();
-            PreparedStatement st = con.prepareStatement(query);
+        withPrepStatement(query, st -> {
+            function.apply(st);
+            return null;
+        });
+    }
+
+    public void withStatement(SqlStatementSupplier function) {
+        withStatement(st -> {
             function.apply(st);
-            st.close();
-            releaseConnection(con);
+            return null;
+        });
+    }
+
+    /**
+     * Queue a write to be executed in background with others of the same SQL as one batch.
+     * Writes of the same SQL are executed in the order they were queued, writes of different SQL may be reordered.
+     * If the queue is full, waits for it up to {@link Settings#borrowTimeout()}.
+     *
+     * @param params parameters of the statement, set with {@link PreparedStatement#setObject(int, Object)}
+     * @return completed when the write is committed, or exceptionally if its transaction failed
+     */
+    public CompletableFuture<Void> enqueueWrite(String sql, Object... params) {
+        if (writesClosed)
+            throw new IllegalStateException("Connection pool is closed");
+        final Write write = new Write(sql, params, new CompletableFuture<>());
+        try {
+            if (!writes.offer(write)) {
+                requestFlush();
+                if (!writes.offer(write, settings.borrowTimeout().toNanos(), TimeUnit.NANOSECONDS))
+                    throw new RuntimeException(new SQLTransientException("Write queue is full, %d pending".formatted(writes.size())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(new SQLTransientException("Interrupted while waiting for the write queue", e));
+        }
+        // close() may have drained the queue after the check above, then either it or we take the write back
+        if (writesClosed && writes.remove(write))
+            throw new IllegalStateException("Connection pool is closed");
+        if (writes.size() >= settings.batch().batchSize())
+            requestFlush();
+        else getWriter();
+        return write.result();
+    }
+
+    private ScheduledExecutorService getWriter() {
+        ScheduledExecutorService writer = this.writer;
+        if (writer != null) return writer;
+        synchronized (flushLock) {
+            if (this.writer == null) {
+                this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread thread = new Thread(r, "DBConnectionHandler-Writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                final long interval = settings.batch().flushInterval().toMillis();
+                this.writer.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+            }
+            return this.writer;
+        }
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true))
+            getWriter().execute(this::flushSafely);
+    }
+
+    private void flushSafely() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Cannot execute queued writes", e);
+        }
+    }
+
+    /**
+     * Execute all queued writes now, in the calling thread. Failed transactions are reported through
+     * the futures returned by {@link #enqueueWrite(String, Object...)}.
+     *
+     * @return number of committed writes
+     */
+    public int flush() {
+        int committed = 0;
+        synchronized (flushLock) {
+            final ArrayList<Write> chunk = new ArrayList<>(settings.batch().batchSize());
+            while (writes.drainTo(chunk, settings.batch().batchSize()) > 0) {
+                committed += executeBatch(chunk);
+                chunk.clear();
+            }
+        }
+        return committed;
+    }
+
+    private int executeBatch(List<Write> chunk) {
+        final LinkedHashMap<String, List<Write>> bySql = new LinkedHashMap<>();
+        for (Write write: chunk)
+            bySql.computeIfAbsent(write.sql(), k -> new ArrayList<>()).add(write);
+
+        try (Lease lease = borrow()) {
+            final Connection con = lease.getConnection();
+            final boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
+            try {
+                for (var e: bySql.entrySet()) {
+                    final PreparedStatement st = lease.prepareStatement(e.getKey());
+                    boolean failed = true;
+                    try {
+                        for (Write write: e.getValue()) {
+                            for (int i = 0; i < write.params().length; i++)
+                                st.setObject(i + 1, write.params()[i]);
+                            st.addBatch();
+                        }
+                        st.executeBatch();
+                        failed = false;
+                    } finally {
+                        lease.release(st, failed);
+                    }
+                }
+                con.commit();
+            } catch (SQLException | RuntimeException e) {
+                lease.markFailed();
+                try {
+                    con.rollback();
+                } catch (SQLException re) {
+                    e.addSuppressed(re);
+                }
+                throw e;
+            } finally {
+                con.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.error("Cannot execute batch of {} queued writes", chunk.size(), e);
+            for (Write write: chunk)
+                write.result().completeExceptionally(e);
+            return 0;
+        }
+        for (Write write: chunk)
+            write.result().complete(null);
+        return chunk.size();
+    }
+
+    /**
+     * @return number of queued writes that are not executed yet
+     */
+    public int getPendingWriteCount() {
+        return writes.size();
+    }
+
+    private void evictSafely() {
+        try {
+            evict();
+        } catch (Exception e) {
+            log.warn("Cannot maintain connection pool", e);
+        }
+    }
+
+    /**
+     * Close connections idle for longer than {@link Settings#idleTimeout()} while there are more than
+     * {@link Settings#minSize()}, drop broken ones and open new ones up to {@link Settings#minSize()}
+     */
+    void evict() throws SQLException {
+        if (closed) return;
+        final long now = System.nanoTime();
+        final long timeout = settings.idleTimeout().toNanos();
+        final long validateAfter = settings.validateAfterIdle().toNanos();
+        final ArrayList<Pooled> expired = new ArrayList<>();
+        final ArrayList<Idle> toValidate = new ArrayList<>();
+        synchronized (this) {
+            // Oldest first, so the most recently used connections stay
+            final int keep = Math.max(settings.minSize() - getBorrowedCount(), 0);
+            final Iterator<Idle> it = idle.iterator();
+            while (it.hasNext()) {
+                final Idle entry = it.next();
+                final long idleFor = now - entry.since();
+                if (idleFor >= timeout && idle.size() > keep) {
+                    it.remove();
+                    expired.add(entry.pooled());
+                } else if (idleFor >= validateAfter && permits.tryAcquire()) {
+                    // Held while validating, so that the connection still counts towards the max size
+                    it.remove();
+                    toValidate.add(entry);
+                }
+            }
+        }
+        expired.forEach(this::closeQuietly);
+
+        for (Idle entry: toValidate) {
+            try {
+                if (isValid(entry.pooled())) {
+                    synchronized (this) {
+                        idle.addFirst(new Idle(entry.pooled(), now));
+                    }
+                } else closeQuietly(entry.pooled());
+            } finally {
+                permits.release();
+            }
+        }
+        fill();
+    }
+
+    private void fill() throws SQLException {
+        while (!closed && getIdleCount() + getBorrowedCount() < settings.minSize()) {
+            final Pooled pooled = new Pooled(factory.create());
+            synchronized (this) {
+                idle.addLast(new Idle(pooled, System.nanoTime()));
+            }
+        }
+    }
+
+    private boolean isValid(Pooled pooled) {
+        try {
+            return pooled.connection.isValid(CHECK_TIMEOUT);
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            return false;
         }
     }
 
-    public void withStatement(SqlStatementSupplier function) {
+    private void closeQuietly(Pooled pooled) {
         try {
-            Connection con = getConnection();
-            Statement st = con.createStatement();
-            function.apply(st);
-            st.close();
-            releaseConnection(con);
+            pooled.connection.close();
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            log.warn("Cannot close connection", e);
+        }
+    }
+
+    private void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            log.warn("Cannot close statement", e);
         }
     }
 
-    private synchronized Connection getConnection() throws SQLException {
-        if (pool.size() > 0)
-            return checkReturnConnection(pool.remove(pool.size() - 1));
-        else return createConnection();
+    public Settings getSettings() {
+        return settings;
     }
 
-    private synchronized void releaseConnection(Connection connection) {
-        pool.add(connection);
+    public synchronized int getIdleCount() {
+        return idle.size();
     }
 
-    private Connection checkReturnConnection(Connection connection) throws SQLException {
-        if (!connection.isValid(CHECK_TIMEOUT))
-            return createConnection();
-        else return connection;
+    public int getBorrowedCount() {
+        return settings.maxSize() - permits.availablePermits();
     }
 
-    private Connection createConnection() throws SQLException {
-        return DriverManager.getConnection(conString);
+    /**
+     * @return number of prepared statements taken from the cache
+     */
+    public long getStatementCacheHits() {
+        return statementHits.get();
+    }
+
+    /**
+     * @return number of statements that were prepared because they were not cached
+     */
+    public long getStatementCacheMisses() {
+        return statementMisses.get();
+    }
+
+    /**
+     * @return number of threads waiting for a free connection, an estimate
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Stop accepting writes, execute queued ones and close idle connections. Borrowed connections are closed
+     * when returned. Writes that were queued while closing fail with {@link SQLNonTransientConnectionException}.
+     */
+    @Override
+    public void close() {
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // Shutting down already, the hook may be running too
+            }
+        }
+        writesClosed = true;
+        flush();
+        final ArrayList<Write> leftover = new ArrayList<>();
+        writes.drainTo(leftover);
+        for (Write write: leftover)
+            write.result().completeExceptionally(new SQLNonTransientConnectionException("Connection pool is closed"));
+        closed = true;
+        eviction.cancel(false);
+        final ScheduledExecutorService writer = this.writer;
+        if (writer != null) writer.shutdown();
+        final ArrayList<Idle> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (Idle entry: toClose)
+            closeQuietly(entry.pooled());
     }
 
     public interface SqlStatementFunction<T> {
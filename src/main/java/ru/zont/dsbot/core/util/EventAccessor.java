@@ -0,0 +1,124 @@
+package ru.zont.dsbot.core.util;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.api.events.message.GenericMessageEvent;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+
+/**
+ * Per-event-class replacement for {@code event.getClass().getMethod("getGuild").invoke(event)} and friends.
+ * Getters are resolved once per class: known JDA event hierarchies are accessed directly,
+ * anything else goes through a cached {@link MethodHandle}.
+ */
+public final class EventAccessor {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final Function<Object, Object> ABSENT = e -> null;
+
+    private static final ClassValue<EventAccessor> CACHE = new ClassValue<>() {
+        @Override
+        protected EventAccessor computeValue(Class<?> type) {
+            return new EventAccessor(type);
+        }
+    };
+
+    private final Function<Object, Object> guildGetter;
+    private final Function<Object, Object> messageGetter;
+    private final Function<Object, Object> channelGetter;
+
+    private EventAccessor(Class<?> type) {
+        if (GenericGuildEvent.class.isAssignableFrom(type))
+            guildGetter = e -> ((GenericGuildEvent) e).getGuild();
+        else if (GenericMessageEvent.class.isAssignableFrom(type))
+            guildGetter = e -> ((GenericMessageEvent) e).isFromGuild() ? ((GenericMessageEvent) e).getGuild() : null;
+        else guildGetter = handleGetter(type, "getGuild");
+
+        if (GenericMessageEvent.class.isAssignableFrom(type))
+            channelGetter = e -> ((GenericMessageEvent) e).getChannel();
+        else channelGetter = handleGetter(type, "getChannel");
+
+        messageGetter = handleGetter(type, "getMessage");
+    }
+
+    public static EventAccessor of(Class<?> eventClass) {
+        return CACHE.get(eventClass);
+    }
+
+    public static EventAccessor of(GenericEvent event) {
+        return CACHE.get(event.getClass());
+    }
+
+    /**
+     * @return {@code true} if events of this class expose {@code getGuild()} at all
+     */
+    public boolean hasGuild() {
+        return guildGetter != ABSENT;
+    }
+
+    @Nullable
+    public Guild getGuild(GenericEvent event) {
+        return get(guildGetter, event, Guild.class);
+    }
+
+    @Nullable
+    public Message getMessage(GenericEvent event) {
+        return get(messageGetter, event, Message.class);
+    }
+
+    @Nullable
+    public MessageChannel getChannel(GenericEvent event) {
+        return get(channelGetter, event, MessageChannel.class);
+    }
+
+    @Nullable
+    public static Guild guildOf(GenericEvent event) {
+        return of(event).getGuild(event);
+    }
+
+    private static <T> T get(Function<Object, Object> getter, GenericEvent event, Class<T> type) {
+        final Object res;
+        try {
+            res = getter.apply(event);
+        } catch (IllegalStateException e) {
+            // JDA throws this from getters that are not applicable for the event's origin (like getGuild() of DMs)
+            return null;
+        }
+        return type.isInstance(res) ? type.cast(res) : null;
+    }
+
+    private static Function<Object, Object> handleGetter(Class<?> type, String name) {
+        final Method method;
+        try {
+            method = type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return ABSENT;
+        }
+        if (method.getReturnType() == void.class || !Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+            return ABSENT;
+
+        final MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            return ABSENT;
+        }
+        return e -> {
+            try {
+                return (Object) handle.invokeExact(e);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package ru.zont.dsbot.core.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Lazily created instances, keyed either by their class or by a string ID. Each instance is created once
+ * even if several threads ask for it at the same time, and suppliers may ask the store for other instances.
+ * {@link #release()} drops everything and closes instances that are {@link AutoCloseable}.
+ */
+public final class InstanceStore {
+    private static final Logger log = LoggerFactory.getLogger(InstanceStore.class);
+
+    private final ConcurrentHashMap<Object, Holder> instances = new ConcurrentHashMap<>();
+    private volatile boolean released = false;
+
+    /**
+     * Created outside of the map's lock, so that suppliers may use the store
+     */
+    private static final class Holder {
+        private volatile Object value;
+
+        private synchronized Object get(Supplier<?> supplier) {
+            if (value == null) value = supplier.get();
+            return value;
+        }
+    }
+
+    /**
+     * @return stored instance, or a new one from {@code newInstance}. If it returns {@code null},
+     * nothing is stored and it will be called again next time.
+     * @throws IllegalStateException if the store is released
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Class<T> clazz, Supplier<T> newInstance) {
+        return (T) getInstance(clazz, newInstance);
+    }
+
+    /**
+     * @see #get(Class, Supplier)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String id, Supplier<T> newInstance) {
+        return (T) getInstance(id, newInstance);
+    }
+
+    private Object getInstance(Object key, Supplier<?> newInstance) {
+        if (released)
+            throw new IllegalStateException("Instance store is released");
+        final Holder holder = instances.computeIfAbsent(key, k -> new Holder());
+        final Object value = holder.value;
+        return value != null ? value : holder.get(newInstance);
+    }
+
+    /**
+     * @return number of stored instances
+     */
+    public int size() {
+        int size = 0;
+        for (Holder holder: instances.values())
+            if (holder.value != null) size++;
+        return size;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Drop all instances and close the {@link AutoCloseable} ones. The store cannot be used afterwards.
+     */
+    public void release() {
+        released = true;
+        for (Object key: instances.keySet()) {
+            final Holder holder = instances.remove(key);
+            if (holder == null || !(holder.value instanceof AutoCloseable closeable)) continue;
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.warn("Cannot close instance " + key, e);
+            }
+        }
+    }
+}
@@ -1,58 +1,430 @@
 package ru.zont.dsbot.core.util;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.StreamSupport;
 
+/**
+ * JSON document in {@code data/<name>.json}. The document is read once and kept in memory, shared by all
+ * instances with the same name; changes are written behind, at most once per {@link #FLUSH_DELAY_MS} ms,
+ * and on {@link #flush()}, {@link #flushAll()} and JVM shutdown. A write that fails is retried in the background,
+ * with the delay doubling up to {@link #RETRY_MAX_DELAY_MS} ms. Edits made to the file by other processes
+ * after it was read are not picked up.
+ * <p>
+ * {@link #journaled(String) Journaled} documents do not rewrite the file on every flush: changes are appended
+ * to {@code data/<name>.json.log} as compact records and replayed over the file on load. Only
+ * {@link #addIfNotContains(String, String)} is logged per element; {@link #opList(String, Function) opList}
+ * logs the whole array and {@link #op(Function) op} the whole document, so editing large members through them
+ * costs as much as rewriting them. When the log outgrows the file, the file is rewritten from memory
+ * and the log is emptied. Records are idempotent, so replaying a log over a file that already has its changes
+ * is harmless, and an incomplete last record is dropped.
+ */
 public class LiteJSON {
+    private static final Logger log = LoggerFactory.getLogger(LiteJSON.class);
+    private static final long FLUSH_DELAY_MS = 500;
+    private static final long RETRY_MAX_DELAY_MS = 60_000;
+    private static final long COMPACT_MIN_SIZE = 64 * 1024;
+    private static final Gson gson = new Gson();
+
+    private static final ConcurrentHashMap<Path, WeakReference<Document>> documents = new ConcurrentHashMap<>();
+    private static final Set<Document> pending = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "LiteJSON-Flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(LiteJSON::flushAll, "LiteJSON-Shutdown"));
+    }
+
     private final String name;
-    private final Gson gson;
     private final File file;
+    private final Document document;
 
     public LiteJSON(String name) {
+        this(name, false);
+    }
+
+    private LiteJSON(String name, boolean journaled) {
         this.name = name;
         file = new File(getFileName());
-        gson = new GsonBuilder().setPrettyPrinting().create();
 
         File dataDir = file.getParentFile();
         if (!dataDir.exists() && !dataDir.mkdirs())
             throw new RuntimeException("Cannot create data dir");
+
+        document = document(file.toPath().toAbsolutePath(), journaled);
+        if (document.journaled() != journaled)
+            throw new IllegalStateException("LiteJSON %s is already open %s a journal".formatted(name, journaled ? "without" : "with"));
     }
 
-    private synchronized JsonObject readElement() {
-        try (FileReader reader = new FileReader(file)) {
-            final JsonObject jsonObject = gson.fromJson(reader, JsonObject.class);
-            if (jsonObject == null)
-                throw new FileNotFoundException();
-            return jsonObject;
-        } catch (FileNotFoundException e) {
-            return gson.fromJson("{}", JsonObject.class);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Open a document that appends its changes to a journal instead of rewriting the file, see {@link LiteJSON}
+     */
+    public static LiteJSON journaled(String name) {
+        return new LiteJSON(name, true);
+    }
+
+    private static Document document(Path path, boolean journaled) {
+        final WeakReference<Document> existing = documents.get(path);
+        final Document document = existing != null ? existing.get() : null;
+        if (document != null) return document;
+
+        documents.values().removeIf(ref -> ref.get() == null);
+        final Document[] res = new Document[1];
+        documents.compute(path, (p, ref) -> {
+            res[0] = ref != null ? ref.get() : null;
+            if (res[0] != null) return ref;
+            res[0] = new Document(p, journaled ? Path.of(p + ".log") : null);
+            return new WeakReference<>(res[0]);
+        });
+        return res[0];
+    }
+
+    /**
+     * Parsed content of a file and whether it has changes that are not written yet. Guarded by itself.
+     * <p>
+     * With a journal, pending changes are kept as the least set of records that brings the log up to date:
+     * the whole document, replaced top-level members, or elements added to arrays. Values are taken
+     * from the document at flush time.
+     */
+    private static final class Document {
+        private final Path path;
+        private final Path journal;
+        private JsonObject root = null;
+        private String written = null;
+        private boolean dirty = false;
+        private final HashMap<String, Set<String>> indexes = new HashMap<>();
+
+        private boolean pendingDocument = false;
+        private final LinkedHashSet<String> pendingMembers = new LinkedHashSet<>();
+        private final ArrayList<Map.Entry<String, JsonElement>> pendingAdds = new ArrayList<>();
+        private long fileSize = 0;
+        private long journalSize = 0;
+        private int failedWrites = 0;
+
+        private Document(Path path, @Nullable Path journal) {
+            this.path = path;
+            this.journal = journal;
+        }
+
+        boolean journaled() {
+            return journal != null;
+        }
+
+        JsonObject root() {
+            if (root == null) {
+                root = read();
+                if (journal != null) replay();
+            }
+            return root;
+        }
+
+        private JsonObject read() {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                final JsonObject jsonObject = gson.fromJson(reader, JsonObject.class);
+                if (jsonObject == null)
+                    throw new FileNotFoundException();
+                fileSize = Files.size(path);
+                return jsonObject;
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                return new JsonObject();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void replay() {
+            if (!Files.isRegularFile(journal)) return;
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+                long offset = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final long next = offset + line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    if (next > channel.size() || !apply(line)) break;
+                    offset = next;
+                }
+                if (offset < channel.size()) {
+                    log.warn("Dropping incomplete journal records at {} in {}", offset, journal);
+                    channel.truncate(offset);
+                }
+                journalSize = offset;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private boolean apply(String line) {
+            final JsonObject record;
+            try {
+                record = JsonParser.parseString(line).getAsJsonObject();
+            } catch (RuntimeException e) {
+                return false;
+            }
+            if (record.has("doc")) {
+                root = record.getAsJsonObject("doc");
+            } else if (record.has("set")) {
+                root.add(record.get("set").getAsString(), record.get("value"));
+            } else if (record.has("remove")) {
+                root.remove(record.get("remove").getAsString());
+            } else if (record.has("add")) {
+                addIfAbsent(root, record.get("add").getAsString(), record.get("value"));
+            } else return false;
+            return true;
+        }
+
+        /**
+         * The whole document may have changed
+         */
+        void changed() {
+            indexes.clear();
+            if (journal != null) {
+                pendingDocument = true;
+                pendingMembers.clear();
+                pendingAdds.clear();
+            }
+            markDirty();
+        }
+
+        /**
+         * Only the member {@code key} may have changed
+         */
+        void changed(String key) {
+            indexes.remove(key);
+            if (journal != null && !pendingDocument) {
+                pendingAdds.removeIf(e -> e.getKey().equals(key));
+                pendingMembers.add(key);
+            }
+            markDirty();
+        }
+
+        /**
+         * Only {@code value} was added to the array {@code key}
+         */
+        void added(String key, JsonElement value) {
+            if (journal != null && !pendingDocument && !pendingMembers.contains(key))
+                pendingAdds.add(Map.entry(key, value));
+            markDirty();
+        }
+
+        boolean isLoaded() {
+            return root != null;
+        }
+
+        /**
+         * @return string values of the array {@code key}, kept up to date by {@link #addIfNotContains(String, String)}
+         * and dropped when the member may have changed otherwise
+         */
+        Set<String> index(String key) {
+            Set<String> index = indexes.get(key);
+            if (index == null) {
+                index = new HashSet<>();
+                final JsonArray array = root().getAsJsonArray(key);
+                if (array != null) {
+                    for (JsonElement e: array)
+                        if (e.isJsonPrimitive()) index.add(e.getAsString());
+                }
+                indexes.put(key, index);
+            }
+            return index;
+        }
+
+        private void markDirty() {
+            dirty = true;
+            if (pending.add(this))
+                flusher.schedule(() -> flush(this), FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Schedule another flush after {@link #write()} has failed and left the changes pending
+         */
+        synchronized void retryLater() {
+            if (!dirty) return;
+            final long delay = Math.min(FLUSH_DELAY_MS << Math.min(failedWrites++, 16), RETRY_MAX_DELAY_MS);
+            if (pending.add(this))
+                flusher.schedule(() -> flush(this), delay, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void write() {
+            if (!dirty) return;
+            dirty = false;
+            if (journal == null) {
+                writeFile();
+                failedWrites = 0;
+                return;
+            }
+
+            final StringBuilder records = new StringBuilder();
+            if (pendingDocument)
+                records.append(record("doc", root)).append('\n');
+            for (String key: pendingMembers) {
+                final JsonObject record = new JsonObject();
+                if (root.has(key)) {
+                    record.addProperty("set", key);
+                    record.add("value", root.get(key));
+                } else record.addProperty("remove", key);
+                records.append(gson.toJson(record)).append('\n');
+            }
+            for (Map.Entry<String, JsonElement> e: pendingAdds) {
+                final JsonObject record = new JsonObject();
+                record.addProperty("add", e.getKey());
+                record.add("value", e.getValue());
+                records.append(gson.toJson(record)).append('\n');
+            }
+            pendingDocument = false;
+            pendingMembers.clear();
+            pendingAdds.clear();
+
+            final ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(false);
+                journalSize = channel.size();
+            } catch (IOException e) {
+                dirty = true;
+                pendingDocument = true;
+                throw new RuntimeException("Cannot append to " + journal, e);
+            }
+
+            failedWrites = 0;
+            if (journalSize > Math.max(COMPACT_MIN_SIZE, fileSize))
+                compact();
+        }
+
+        private static String record(String type, JsonElement value) {
+            final JsonObject record = new JsonObject();
+            record.add(type, value);
+            return gson.toJson(record);
+        }
+
+        /**
+         * Rewrite the file from memory and empty the log. If the process dies in between,
+         * the log is replayed over the new file, which changes nothing.
+         */
+        private void compact() {
+            written = null;
+            writeFile();
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+                channel.force(false);
+                journalSize = 0;
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot truncate " + journal, e);
+            }
+        }
+
+        /**
+         * Replace the file atomically with the current content, unless it is what was written last time
+         */
+        private void writeFile() {
+            final StringWriter out = new StringWriter();
+            gson.toJson(root, new JsonWriter(out));
+            final String text = out.toString();
+            if (text.equals(written)) return;
+
+            Path tmp = null;
+            try {
+                tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+                Files.writeString(tmp, text, StandardCharsets.UTF_8);
+                try {
+                    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                written = text;
+                fileSize = Files.size(path);
+            } catch (IOException e) {
+                dirty = true;
+                throw new RuntimeException("Cannot write " + path, e);
+            } finally {
+                if (tmp != null) {
+                    try {
+                        Files.deleteIfExists(tmp);
+                    } catch (IOException ignored) { }
+                }
+            }
         }
     }
 
-    private synchronized void storeElement(JsonObject element) {
-        try (FileWriter writer = new FileWriter(file, StandardCharsets.UTF_8)) {
-            gson.toJson(element, new JsonWriter(writer));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    private static void addIfAbsent(JsonObject root, String key, JsonElement value) {
+        JsonArray array = root.getAsJsonArray(key);
+        if (array == null) {
+            array = new JsonArray();
+            root.add(key, array);
+        }
+        if (!array.contains(value))
+            array.add(value);
+    }
+
+    /**
+     * Write the document under its lock, whether it is pending or not: if the flusher has already taken it
+     * and is writing it, this waits for that write to finish.
+     */
+    private static void flush(Document document) {
+        synchronized (document) {
+            pending.remove(document);
+            try {
+                document.write();
+            } catch (Exception e) {
+                log.error("Cannot flush LiteJSON, will retry", e);
+                document.retryLater();
+            }
+        }
+    }
+
+    /**
+     * Write pending changes of this document now. Returns when they are on disk, or when writing them has failed.
+     */
+    public void flush() {
+        flush(document);
+    }
+
+    /**
+     * Write pending changes of all documents now, see {@link #flush()}
+     */
+    public static void flushAll() {
+        for (WeakReference<Document> ref: List.copyOf(documents.values())) {
+            final Document document = ref.get();
+            if (document != null) flush(document);
         }
     }
 
+    /**
+     * Run {@code function} over the stored document, not a copy. Operations are not atomic: if it throws,
+     * the changes it has made so far are kept and written like any other.
+     */
     public <T> T op(Function<JsonObject, T> function) {
-        final JsonObject root = readElement();
-        T res = function.apply(root);
-        storeElement(root);
-        return res;
+        synchronized (document) {
+            final JsonObject root = document.root();
+            try {
+                return function.apply(root);
+            } finally {
+                document.changed();
+            }
+        }
     }
 
     public void op(Consumer<JsonObject> consumer) {
@@ -66,18 +438,25 @@ public class LiteJSON {
         return opList("list", function);
     }
 
+    /**
+     * Run {@code function} over the stored array {@code key}, created if missing. Not atomic, see {@link #op(Function)}.
+     */
     public <T> T opList(String key, Function<JsonArray, T> function) {
-        final JsonObject root = readElement();
-        final JsonArray list;
-        if (root.has(key))
-            list = root.get(key).getAsJsonArray();
-        else {
-            list = new JsonArray();
-            root.add(key, list);
+        synchronized (document) {
+            final JsonObject root = document.root();
+            final JsonArray list;
+            if (root.has(key))
+                list = root.get(key).getAsJsonArray();
+            else {
+                list = new JsonArray();
+                root.add(key, list);
+            }
+            try {
+                return function.apply(list);
+            } finally {
+                document.changed(key);
+            }
         }
-        T res = function.apply(list);
-        storeElement(root);
-        return res;
     }
 
     public void opList(Consumer<JsonArray> consumer) {
@@ -91,8 +470,13 @@ public class LiteJSON {
         });
     }
 
+    /**
+     * @return copy of the document, changing it does not affect the stored one
+     */
     public JsonObject get() {
-        return readElement();
+        synchronized (document) {
+            return document.root().deepCopy();
+        }
     }
 
     public List<String> getList() {
@@ -108,21 +492,93 @@ public class LiteJSON {
     }
 
     public <T> List<T> getList(String key, Function<JsonElement, T> mapFunction) {
-        final JsonArray jsonArray = get().getAsJsonArray(key);
-        return jsonArray != null
-                ? StreamSupport.stream(jsonArray.spliterator(), false)
-                        .map(mapFunction)
-                        .toList()
-                : Collections.emptyList();
+        synchronized (document) {
+            final JsonArray jsonArray = document.root().getAsJsonArray(key);
+            return jsonArray != null
+                    ? StreamSupport.stream(jsonArray.spliterator(), false)
+                            .map(e -> mapFunction.apply(e.deepCopy()))
+                            .toList()
+                    : Collections.emptyList();
+        }
     }
 
     public void addIfNotContains(String element) {
+        addIfNotContains("list", element);
+    }
+
+    /**
+     * Add {@code element} to the array {@code key} unless it has an element with the same string value.
+     * Membership is checked against a hash index of the array, built on first use.
+     */
+    public void addIfNotContains(String key, String element) {
         if (element.isBlank()) return;
-        opList(a -> {
-            if (StreamSupport.stream(a.spliterator(), false)
-                    .map(e -> e.isJsonPrimitive() ? e.getAsString() : "")
-                    .noneMatch(element::equals)) a.add(element);
-        });
+        synchronized (document) {
+            if (!document.index(key).add(element)) return;
+            final JsonObject root = document.root();
+            JsonArray array = root.getAsJsonArray(key);
+            if (array == null) {
+                array = new JsonArray();
+                root.add(key, array);
+            }
+            final JsonPrimitive value = new JsonPrimitive(element);
+            array.add(value);
+            document.added(key, value);
+        }
+    }
+
+    public boolean listContains(String element) {
+        return listContains("list", element);
+    }
+
+    /**
+     * @return whether the array {@code key} has an element with this string value, see {@link #addIfNotContains(String, String)}
+     */
+    public boolean listContains(String key, String element) {
+        synchronized (document) {
+            return document.index(key).contains(element);
+        }
+    }
+
+    public void forEachInList(Consumer<JsonElement> action) {
+        forEachInList("list", action);
+    }
+
+    /**
+     * Iterate elements of the array {@code key}. If the document is not loaded yet, elements are parsed
+     * one by one from the file, without loading the document; otherwise a snapshot of the array is iterated.
+     */
+    public void forEachInList(String key, Consumer<JsonElement> action) {
+        final ArrayList<JsonElement> elements;
+        synchronized (document) {
+            if (document.isLoaded() || document.journaled()) {
+                final JsonArray array = document.root().getAsJsonArray(key);
+                if (array == null) return;
+                elements = new ArrayList<>(array.size());
+                for (JsonElement e: array)
+                    elements.add(e.deepCopy());
+            } else elements = null;
+        }
+        if (elements != null) {
+            elements.forEach(action);
+            return;
+        }
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals(key) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext())
+                    action.accept(JsonParser.parseReader(reader));
+                return;
+            }
+        } catch (NoSuchFileException | EOFException ignored) {
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private String getFileName() {
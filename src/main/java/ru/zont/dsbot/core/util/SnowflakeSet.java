@@ -0,0 +1,106 @@
+package ru.zont.dsbot.core.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable set of Discord IDs stored as a sorted {@code long[]}. Lookups neither box nor allocate,
+ * and {@link #contains(String)} does not throw on malformed IDs.
+ */
+public final class SnowflakeSet {
+    public static final SnowflakeSet EMPTY = new SnowflakeSet(new long[0]);
+
+    private final long[] ids;
+
+    private SnowflakeSet(long[] sortedDistinct) {
+        this.ids = sortedDistinct;
+    }
+
+    /**
+     * @param ids IDs as strings; anything that is not a non-negative decimal long is skipped
+     */
+    public static SnowflakeSet of(Collection<String> ids) {
+        final long[] res = new long[ids.size()];
+        int n = 0;
+        for (String id: ids) {
+            final long parsed = parse(id);
+            if (parsed >= 0) res[n++] = parsed;
+        }
+        return of(res, n);
+    }
+
+    public static SnowflakeSet of(long... ids) {
+        return of(ids.clone(), ids.length);
+    }
+
+    private static SnowflakeSet of(long[] ids, int length) {
+        if (length == 0) return EMPTY;
+        Arrays.sort(ids, 0, length);
+        int n = 1;
+        for (int i = 1; i < length; i++)
+            if (ids[i] != ids[n - 1]) ids[n++] = ids[i];
+        return new SnowflakeSet(n == ids.length ? ids : Arrays.copyOf(ids, n));
+    }
+
+    /**
+     * @return snowflake value, or -1 if the string is not a non-negative decimal long
+     */
+    public static long parse(String id) {
+        if (id == null) return -1;
+        final int len = id.length();
+        if (len == 0 || len > 19) return -1;
+        long res = 0;
+        for (int i = 0; i < len; i++) {
+            final char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            res = res * 10 + (c - '0');
+            if (res < 0) return -1;
+        }
+        return res;
+    }
+
+    public boolean contains(long id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    public boolean contains(String id) {
+        final long parsed = parse(id);
+        return parsed >= 0 && contains(parsed);
+    }
+
+    public SnowflakeSet with(long id) {
+        if (id < 0 || contains(id)) return this;
+        final long[] res = Arrays.copyOf(ids, ids.length + 1);
+        res[ids.length] = id;
+        return of(res, res.length);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public long[] toArray() {
+        return ids.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SnowflakeSet that)) return false;
+        return Arrays.equals(ids, that.ids);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ids);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(ids);
+    }
+}
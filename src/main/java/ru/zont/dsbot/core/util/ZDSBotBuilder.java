@@ -14,6 +14,7 @@ import ru.zont.dsbot.core.commands.CommandAdapter;
 import ru.zont.dsbot.core.listeners.GuildListenerAdapter;
 
 import javax.security.auth.login.LoginException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Properties;
@@ -30,6 +31,8 @@ public class ZDSBotBuilder {
     private final ArrayList<Class<? extends CommandAdapter>> commandAdapters = new ArrayList<>();
     private final ArrayList<Class<? extends GuildListenerAdapter>> guildListeners = new ArrayList<>();
     private String version = null;
+    private Duration configIdleTimeout = null;
+    private boolean singleFileGuildConfigs = false;
 
     public static ZDSBotBuilder createLight(String key) {
         return new ZDSBotBuilder(JDABuilder.createLight(key));
@@ -135,8 +138,30 @@ public class ZDSBotBuilder {
         return this;
     }
 
+    /**
+     * Unload guild configs that were not accessed for the given time, see {@link ZDSBConfigManager#setIdleTimeout(Duration)}
+     */
+    public ZDSBotBuilder configIdleTimeout(Duration timeout) {
+        configIdleTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Keep all guild configs in one file instead of a file per guild, see {@link ru.zont.dsbot.core.config.GuildConfigStore}.
+     * Existing guild config files are migrated to it on build.
+     */
+    public ZDSBotBuilder singleFileGuildConfigs() {
+        singleFileGuildConfigs = true;
+        return this;
+    }
+
     public ZDSBot build() throws LoginException, InterruptedException {
         if (config == null) defaultConfig();
+        if (configIdleTimeout != null) config.setIdleTimeout(configIdleTimeout);
+        if (singleFileGuildConfigs) {
+            config.useGuildStore();
+            config.migrateGuildFiles();
+        }
         return new ZDSBot(jdaBuilder, config, commandAdapters, guildListeners, version);
     }
 }
@@ -0,0 +1,113 @@
+package ru.zont.dsbot.core;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.zont.dsbot.core.commands.CommandListener;
+import ru.zont.dsbot.core.commands.CommandRegistry;
+import ru.zont.dsbot.core.config.ConfigWriter;
+import ru.zont.dsbot.core.config.ZDSBBotConfig;
+import ru.zont.dsbot.core.config.ZDSBConfigManager;
+import ru.zont.dsbot.core.config.ZDSBContextConfig;
+import ru.zont.dsbot.core.listeners.EventRouter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class GuildContextTest {
+    private static final File cfgDir = new File("cfg-test-context");
+    private static final String guildId = "133726118635208716";
+
+    private ZDSBConfigManager<ZDSBContextConfig, ZDSBBotConfig> manager;
+    private ZDSBot bot;
+    private Guild guild;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        if (cfgDir.exists())
+            FileUtils.forceDelete(cfgDir);
+        manager = new ZDSBConfigManager<>(cfgDir.getPath());
+
+        guild = mock(Guild.class, RETURNS_DEEP_STUBS);
+        when(guild.getId()).thenReturn(guildId);
+        when(guild.getIdLong()).thenReturn(Long.parseLong(guildId));
+        final JDA jda = mock(JDA.class);
+        when(jda.getGuildById(guildId)).thenReturn(guild);
+
+        bot = mock(ZDSBot.class);
+        // Config getters of the bot are final, so they read the manager of the mock itself
+        final Field field = ZDSBot.class.getDeclaredField("configManager");
+        field.setAccessible(true);
+        field.set(bot, manager);
+
+        final CommandRegistry registry = new CommandRegistry(bot, List.of());
+        when(bot.getCommandRegistry()).thenReturn(registry);
+        when(bot.getJda()).thenReturn(jda);
+        when(bot.getGuildListeners()).thenReturn(new ArrayList<>());
+        final EventRouter router = new EventRouter(bot);
+        when(bot.getEventRouter()).thenReturn(router);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ConfigWriter.shared().flush();
+        if (cfgDir.exists())
+            FileUtils.forceDelete(cfgDir);
+    }
+
+    private void message(CommandListener listener, String content) {
+        final MessageReceivedEvent event = mock(MessageReceivedEvent.class, RETURNS_DEEP_STUBS);
+        when(event.getMessage().getContentRaw()).thenReturn(content);
+        listener.onEvent(guild, event);
+    }
+
+    @Test
+    void disposeCommandListener() throws InterruptedException {
+        final GuildContext context = new GuildContext(bot, guild);
+        final CommandListener listener = spy(new CommandListener(context));
+        context.activateListener(listener);
+        assertSame(listener, context.getCommandListener());
+        message(listener, "not a command");
+        assertEquals(1, listener.getRejectedMessages());
+
+        context.dispose();
+        verify(listener).dispose();
+        assertTrue(context.getActiveListeners().isEmpty());
+
+        // Nothing keeps the guild config once the context is gone
+        manager.setIdleTimeout(Duration.ofMillis(50));
+        Thread.sleep(60);
+        assertEquals(1, manager.evictIdle());
+    }
+
+    @Test
+    void idleConfigEvictedAfterCommand() throws InterruptedException {
+        final GuildContext context = new GuildContext(bot, guild);
+        final CommandListener listener = new CommandListener(context);
+        context.activateListener(listener);
+        final ZDSBContextConfig config = context.getConfig();
+        message(listener, config.getPrefix() + "help");
+        assertEquals(1, listener.getDispatchedMessages());
+
+        manager.setIdleTimeout(Duration.ofMillis(50));
+        Thread.sleep(60);
+        assertEquals(1, manager.evictIdle());
+        assertNotSame(config, context.getConfig());
+
+        // The next message reads the prefix of the reloaded config
+        message(listener, "not a command");
+        assertEquals(1, listener.getRejectedMessages());
+        context.dispose();
+    }
+}
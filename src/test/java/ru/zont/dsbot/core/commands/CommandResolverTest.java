@@ -0,0 +1,93 @@
+package ru.zont.dsbot.core.commands;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.junit.jupiter.api.Test;
+import ru.zont.dsbot.core.util.ResponseTarget;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandResolverTest {
+
+    private static class Stub extends CommandAdapter {
+        private final String name;
+        private final List<String> aliases;
+        private final boolean dontCallByName;
+
+        Stub(String name, boolean dontCallByName, String... aliases) {
+            super(null, null);
+            this.name = name;
+            this.aliases = List.of(aliases);
+            this.dontCallByName = dontCallByName;
+        }
+
+        @Override
+        public void onCall(ResponseTarget replyTo, Input input, MessageReceivedEvent event, Object... params) { }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getShortDesc() {
+            return name;
+        }
+
+        @Override
+        public List<String> getAliases() {
+            return aliases;
+        }
+
+        @Override
+        public boolean dontCallByName() {
+            return dontCallByName;
+        }
+    }
+
+    private static CommandResolver resolver(CommandAdapter... adapters) {
+        final HashMap<String, CommandAdapter> map = new HashMap<>();
+        for (CommandAdapter a: adapters)
+            map.put(a.getName(), a);
+        return CommandResolver.build(map);
+    }
+
+    @Test
+    void byNameAndAlias() {
+        final Stub help = new Stub("help", false, "man", "?");
+        final Stub ping = new Stub("ping", false);
+        final CommandResolver resolver = resolver(help, ping);
+
+        assertSame(help, resolver.find("help", "help ping", false));
+        assertSame(help, resolver.find("man", "man ping", false));
+        assertSame(help, resolver.find("?ping", "?ping", false));
+        assertSame(ping, resolver.find("ping", "ping", false));
+        assertNull(resolver.find("pong", "pong", false));
+        // Text commands are not resolved by prefix in the slash namespace
+        assertNull(resolver.find("?", "?ping", true));
+    }
+
+    @Test
+    void dontCallByName() {
+        final Stub say = new Stub("say-internal", true, "say", "!");
+        final CommandResolver resolver = resolver(say);
+
+        assertSame(say, resolver.find("!hello", "!hello world", false));
+        assertSame(say, resolver.find("say", "say hello", false));
+    }
+
+    @Test
+    void ambiguous() {
+        final Stub exec = new Stub("exec", false, "$");
+        final Stub shell = new Stub("shell", false, "$$");
+        final CommandResolver resolver = resolver(exec, shell);
+
+        assertSame(exec, resolver.find("$ls", "$ls", false));
+        final CommandAdapter.AmbiguousCallException e = assertThrows(CommandAdapter.AmbiguousCallException.class,
+                () -> resolver.find("$$ls", "$$ls", false));
+        assertTrue(e.getDescription().contains("exec"));
+        assertTrue(e.getDescription().contains("shell"));
+    }
+}
@@ -0,0 +1,72 @@
+package ru.zont.dsbot.core.commands;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.apache.commons.cli.Options;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import ru.zont.dsbot.core.util.Microbenchmark;
+import ru.zont.dsbot.core.util.ResponseTarget;
+
+/**
+ * Rough per-message cost of {@link Input}: tokenizing, parsing options and extracting unrecognized content
+ * of a typical and of a 4 KB {@code exec} message, see {@link Microbenchmark}.
+ */
+@Tag(Microbenchmark.TAG)
+class InputBenchmark {
+
+    @Test
+    void input() throws Exception {
+        final CommandAdapter adapter = new Exec();
+
+        final String typical = "exec -o --longop \"val ue\" python -m pip install ipython";
+        final StringBuilder code = new StringBuilder("exec ```py\n");
+        while (code.length() < 4096)
+            code.append("print(\"line\", i, 'quoted \\\\ text')\n");
+        code.append("```");
+        final String big = code.toString();
+        final String quoted = "'" + big.substring(5).replace("'", "") + "'";
+
+        new Microbenchmark(20_000, 100_000).run("msg",
+                Microbenchmark.of("typical", () -> parse(typical, adapter)),
+                Microbenchmark.of("4 KB", () -> parse(big, adapter)),
+                Microbenchmark.of("stringify 4 KB words", () -> ArgumentTokenizer.tokenize(big, true)),
+                Microbenchmark.of("stringify 4 KB block", () -> ArgumentTokenizer.tokenize(quoted, true)));
+    }
+
+    private static String parse(String content, CommandAdapter adapter) {
+        final Input input = new Input(content);
+        input.applyAdapter(null, adapter);
+        return input.getContentUnrecognized();
+    }
+
+    private static class Exec extends CommandAdapter {
+        Exec() {
+            super(null, null);
+        }
+
+        @Override
+        public void onCall(ResponseTarget replyTo, Input input, MessageReceivedEvent event, Object... params) { }
+
+        @Override
+        public String getName() {
+            return "exec";
+        }
+
+        @Override
+        public String getShortDesc() {
+            return "";
+        }
+
+        @Override
+        public boolean doStopAtNonOption() {
+            return true;
+        }
+
+        @Override
+        public Options getOptions() {
+            return new Options()
+                    .addOption("o", "")
+                    .addOption("l", "longop", true, "");
+        }
+    }
+}
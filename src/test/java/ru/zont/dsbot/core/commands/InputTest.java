@@ -4,6 +4,8 @@ import org.apache.commons.cli.Options;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -66,4 +68,36 @@ class InputTest {
         input.applyAdapter(null, mock);
         assertEquals("python -m pip install ipython", input.getContentUnrecognized());
     }
-}
\ No newline at end of file
+
+    @Test
+    void comNameAndContent() {
+        Input input = new Input("say   hello  world");
+        assertEquals("say", input.getComName());
+        assertEquals("hello  world", input.getContent());
+
+        input = new Input("help");
+        assertEquals("help", input.getComName());
+        assertEquals("", input.getContent());
+    }
+
+    @Test
+    void getUnrecognizedQuoted() {
+        Input input = new Input("exec -v val \"print('a b')\" 'x y'");
+        input.applyAdapter(null, mock);
+        assertEquals("print('a b')\" 'x y", input.getContentUnrecognized());
+    }
+
+    @Test
+    void tokenSpans() {
+        String src = "cmd a \"b c\" d\\ e";
+        List<ArgumentTokenizer.Token> tokens = ArgumentTokenizer.lex(src, 4);
+        assertEquals(List.of("a", "b c", "d e"), tokens.stream().map(ArgumentTokenizer.Token::value).toList());
+        assertEquals("b c", src.substring(tokens.get(1).start(), tokens.get(1).end()));
+        assertEquals("d\\ e", src.substring(tokens.get(2).start(), tokens.get(2).end()));
+    }
+
+    @Test
+    void tokenizeStringify() {
+        assertEquals(List.of("\"a\\\"b\"", "\"x\\ny\""), ArgumentTokenizer.tokenize("'a\"b' \"x\ny\"", true));
+    }
+}
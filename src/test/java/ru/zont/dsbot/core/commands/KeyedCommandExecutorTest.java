@@ -0,0 +1,69 @@
+package ru.zont.dsbot.core.commands;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.zont.dsbot.core.commands.exceptions.CommandQueueOverflowException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyedCommandExecutorTest {
+    private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    void sameChannelInOrder() throws InterruptedException {
+        final KeyedCommandExecutor executor = new KeyedCommandExecutor(workers, 0, KeyedCommandExecutor.OverflowPolicy.REJECT);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            executor.submit("1", 10, () -> {
+                order.add(n);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, order.get(i));
+    }
+
+    @Test
+    void overflowPerGuild() throws InterruptedException {
+        final KeyedCommandExecutor executor = new KeyedCommandExecutor(workers, 2, KeyedCommandExecutor.OverflowPolicy.REJECT);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) { }
+        };
+
+        executor.submit("1", 10, blocking);
+        executor.submit("1", 11, blocking);
+        assertEquals(2, executor.getQueueDepth("1"));
+        assertThrows(CommandQueueOverflowException.class, () -> executor.submit("1", 12, blocking));
+        assertEquals(1, executor.getRejectedCount("1"));
+
+        // Other guilds are not affected
+        assertTrue(executor.submit("2", 20, blocking));
+
+        final KeyedCommandExecutor dropping = new KeyedCommandExecutor(workers, 1, KeyedCommandExecutor.OverflowPolicy.DROP);
+        dropping.submit("1", 10, blocking);
+        assertFalse(dropping.submit("1", 10, blocking));
+
+        release.countDown();
+    }
+}
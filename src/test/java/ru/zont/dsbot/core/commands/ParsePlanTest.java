@@ -0,0 +1,89 @@
+package ru.zont.dsbot.core.commands;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionGroup;
+import org.apache.commons.cli.Options;
+import org.junit.jupiter.api.Test;
+import ru.zont.dsbot.core.util.ResponseTarget;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParsePlanTest {
+
+    private static class Stub extends CommandAdapter {
+        private int optionsBuilt = 0;
+        private boolean grouped = false;
+
+        Stub() {
+            super(null, null);
+        }
+
+        @Override
+        public void onCall(ResponseTarget replyTo, Input input, MessageReceivedEvent event, Object... params) { }
+
+        @Override
+        public String getName() {
+            return "stub";
+        }
+
+        @Override
+        public String getShortDesc() {
+            return "Stub command";
+        }
+
+        @Override
+        public Options getOptions() {
+            optionsBuilt++;
+            final Options options = new Options().addOption("v", "value", true, "Value");
+            if (grouped)
+                options.addOptionGroup(new OptionGroup()
+                        .addOption(new Option("a", "A"))
+                        .addOption(new Option("b", "B")));
+            return options;
+        }
+
+        void setGrouped(boolean grouped) {
+            this.grouped = grouped;
+            invalidateParsePlan();
+        }
+    }
+
+    @Test
+    void compiledOnce() {
+        final Stub stub = new Stub();
+        final String syntax = stub.getSyntax();
+        assertTrue(syntax.startsWith("stub"), syntax);
+        assertTrue(stub.getHelp().contains("Stub command"));
+        assertSame(stub.getParsePlan(), stub.getParsePlan());
+
+        new Input("stub -v 1 rest").applyAdapter(null, stub);
+        new Input("stub -v 2 rest").applyAdapter(null, stub);
+        assertEquals(1, stub.optionsBuilt);
+    }
+
+    @Test
+    void invalidated() throws Exception {
+        final Stub stub = new Stub();
+        final ParsePlan plan = stub.getParsePlan();
+        stub.setGrouped(true);
+        assertNotSame(plan, stub.getParsePlan());
+        assertEquals(2, stub.optionsBuilt);
+
+        final CommandLine cl = stub.getParsePlan().parse(new String[]{"-a"});
+        assertTrue(cl.hasOption('a'));
+        assertTrue(stub.getParsePlan().parse(new String[]{"-b"}).hasOption('b'));
+    }
+
+    @Test
+    void independentResults() throws Exception {
+        final ParsePlan plan = new Stub().getParsePlan();
+        final CommandLine first = plan.parse(new String[]{"-v", "1", "x"});
+        final CommandLine second = plan.parse(new String[]{"-v", "2"});
+        assertEquals("1", first.getOptionValue('v'));
+        assertEquals("2", second.getOptionValue('v'));
+        assertEquals(1, first.getArgList().size());
+        assertTrue(second.getArgList().isEmpty());
+    }
+}
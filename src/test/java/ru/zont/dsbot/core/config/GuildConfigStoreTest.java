@@ -0,0 +1,78 @@
+package ru.zont.dsbot.core.config;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GuildConfigStoreTest {
+    private static final File cfgDir = new File("cfg-test");
+    private static final File file = new File(cfgDir, GuildConfigStore.DEFAULT_FILE_NAME);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        if (cfgDir.exists())
+            FileUtils.forceDelete(cfgDir);
+        FileUtils.forceMkdir(cfgDir);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (cfgDir.exists())
+            FileUtils.forceDelete(cfgDir);
+    }
+
+    @Test
+    void readWrite() throws IOException {
+        try (GuildConfigStore store = new GuildConfigStore(file)) {
+            assertNull(store.read(1));
+            store.write(1, Map.of("prefix", "r."));
+            store.write(2, Map.of("prefix", "line\nbreak", "key", "значение"));
+            store.write(1, Map.of("prefix", "s."));
+            assertEquals(Map.of("prefix", "s."), store.read(1));
+            assertEquals(Map.of("prefix", "line\nbreak", "key", "значение"), store.read(2));
+        }
+        try (GuildConfigStore store = new GuildConfigStore(file)) {
+            assertEquals(2, store.size());
+            assertEquals(Map.of("prefix", "s."), store.read(1));
+            store.write(2, Map.of());
+            assertNull(store.read(2));
+            assertArrayEquals(new long[]{1}, store.getGuildIds().toArray());
+        }
+    }
+
+    @Test
+    void incompleteTail() throws IOException {
+        try (GuildConfigStore store = new GuildConfigStore(file)) {
+            store.write(1, Map.of("prefix", "r."));
+        }
+        Files.writeString(file.toPath(), "{\"guild\":\"2\",\"val", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        try (GuildConfigStore store = new GuildConfigStore(file)) {
+            assertEquals(1, store.size());
+            store.write(3, Map.of("prefix", "t."));
+            assertEquals(Map.of("prefix", "t."), store.read(3));
+            assertEquals(Map.of("prefix", "r."), store.read(1));
+        }
+    }
+
+    @Test
+    void compaction() throws IOException {
+        try (GuildConfigStore store = new GuildConfigStore(file)) {
+            final String value = "x".repeat(100);
+            for (int i = 0; i < 2000; i++)
+                store.write(i % 3, Map.of("value", value + i));
+            assertTrue(store.getFileSize() < 64 * 1024 + 1024, "File size: " + store.getFileSize());
+            assertEquals(Map.of("value", value + 1999), store.read(1999 % 3));
+            assertEquals(3, store.size());
+        }
+    }
+}
@@ -8,6 +8,9 @@ import org.junit.jupiter.api.TestInfo;
 import ru.zont.dsbot.core.StandardTest;
 
 import java.io.*;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -37,10 +40,21 @@ class ZDSBConfigManagerTest extends StandardTest {
 
     @AfterEach
     void tearDown() throws IOException {
+        ConfigWriter.shared().flush();
         if (cfgDir.exists())
             FileUtils.forceDelete(cfgDir);
     }
 
+    /**
+     * On-disk edits are picked up by {@link ConfigWatcher} asynchronously, within a second
+     */
+    private static void assertReloaded(String expected, Supplier<String> actual) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (!expected.equals(actual.get()) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(expected, actual.get());
+    }
+
     @Test
     void guildConfig() {
         final String id = "133726118635208716";
@@ -52,7 +66,7 @@ class ZDSBConfigManagerTest extends StandardTest {
     }
 
     @Test
-    void cfgUpdate() throws IOException {
+    void cfgUpdate() throws IOException, InterruptedException {
         final String id = "133726118635208716";
         final TestConfig cfg = manager.guildConfig(id);
         final TestConfig gCfg = manager.globalConfig();
@@ -64,43 +78,122 @@ class ZDSBConfigManagerTest extends StandardTest {
 
         copyResource("/local_config_test.properties", file);
 
-        assertEquals("//", cfg.prefix.getValue());
+        assertReloaded("//", cfg.prefix::getValue);
         assertEquals(defaultValue, gCfg.prefix.getValue());
 
         copyResource("/global_config_test.properties", gCfg.getConfigFile());
 
+        assertReloaded("zdsb.", gCfg.prefix::getValue);
         assertEquals("//", cfg.prefix.getValue());
-        assertEquals("zdsb.", gCfg.prefix.getValue());
     }
 
     @Test
-    void overridedOnly() throws IOException {
+    void overridedOnly() throws IOException, InterruptedException {
         final String id = "133726118635208716";
         final TestConfig cfg = manager.guildConfig(id);
         final TestConfig gCfg = manager.globalConfig();
 
         copyResource("/local_config_test.properties", gCfg.getConfigFile());
 
-        assertEquals("//", gCfg.prefix.getValue());
+        assertReloaded("//", gCfg.prefix::getValue);
         assertEquals("//", cfg.prefix.getValue());
 
         copyResource("/global_config_test.properties", gCfg.getConfigFile());
 
-        assertEquals("zdsb.", gCfg.prefix.getValue());
+        assertReloaded("zdsb.", gCfg.prefix::getValue);
         assertEquals("zdsb.", cfg.prefix.getValue());
 
         copyResource("/local_config_test.properties", gCfg.getConfigFile());
         cfg.prefix.setValue("r.");
 
-        assertEquals("//", gCfg.prefix.getValue());
+        assertReloaded("//", gCfg.prefix::getValue);
         assertEquals("r.", cfg.prefix.getValue());
 
         copyResource("/global_config_test.properties", gCfg.getConfigFile());
 
-        assertEquals("zdsb.", gCfg.prefix.getValue());
+        assertReloaded("zdsb.", gCfg.prefix::getValue);
         assertEquals("r.", cfg.prefix.getValue());
     }
 
+    @Test
+    void idleEviction() throws InterruptedException {
+        final TestConfig cfg = manager.guildConfig("1");
+        manager.guildConfig("2");
+        cfg.prefix.setValue("r.");
+        assertEquals(3, manager.getLoadedCount());
+        assertEquals(0, manager.evictIdle());
+
+        manager.setIdleTimeout(Duration.ofMillis(50));
+        Thread.sleep(60);
+        manager.globalConfig(); // evicts in background
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (manager.getLoadedCount() > 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, manager.getLoadedCount());
+        assertEquals(0, manager.evictIdle());
+
+        final TestConfig reloaded = manager.guildConfig("1");
+        assertNotSame(cfg, reloaded);
+        assertEquals("r.", reloaded.prefix.getValue());
+    }
+
+    @Test
+    void subscribedNotEvicted() throws InterruptedException {
+        final TestConfig cfg = manager.guildConfig("1");
+        manager.guildConfig("2");
+        final ZDSBConfig.Subscription subscription = cfg.prefix.subscribe(change -> { });
+
+        manager.setIdleTimeout(Duration.ofMillis(50));
+        Thread.sleep(60);
+        assertEquals(1, manager.evictIdle());
+        assertSame(cfg, manager.guildConfig("1"));
+
+        subscription.cancel();
+        Thread.sleep(60);
+        assertEquals(1, manager.evictIdle());
+        assertNotSame(cfg, manager.guildConfig("1"));
+    }
+
+    @Test
+    void inheritedByReference() {
+        final TestConfig cfg = manager.guildConfig("1");
+        final TestConfig gCfg = manager.globalConfig();
+        final long version = cfg.getVersion();
+
+        gCfg.default_entry_field.setValue("global.");
+        assertEquals("global.", cfg.default_entry_field.getValue());
+        assertTrue(cfg.getVersion() > version);
+
+        cfg.default_entry_field.setValue("local.");
+        gCfg.default_entry_field.setValue("global2.");
+        assertEquals("local.", cfg.default_entry_field.getValue());
+    }
+
+    @Test
+    void guildStore() throws IOException {
+        final File file = new File(cfgDir, "guild-2.properties");
+        copyResource("/local_config_test.properties", file);
+        manager.globalConfig().default_entry_field.setValue("global.");
+
+        final byte[] original = FileUtils.readFileToByteArray(file);
+
+        final GuildConfigStore store = manager.useGuildStore();
+        assertEquals(1, manager.migrateGuildFiles());
+        assertFalse(file.exists());
+        assertArrayEquals(original, FileUtils.readFileToByteArray(new File(cfgDir, "guild-2.properties.migrated")));
+        assertEquals(Map.of("prefix", "//", "local_field", "yes"), store.read(2));
+
+        final TestConfig cfg = manager.guildConfig("1");
+        assertFalse(new File(cfgDir, "guild-1.properties").exists());
+        assertEquals("global.", cfg.default_entry_field.getValue());
+        cfg.prefix.setValue("r.");
+        cfg.default_entry_field.setValue("global.");
+        cfg.flush();
+        assertEquals(Map.of("prefix", "r."), store.read(1));
+        assertEquals("//", manager.guildConfig("2").prefix.getValue());
+        store.close();
+    }
+
     @Test
     void evaluateLong() {
         TestConfig config = manager.guildConfig("1234055");
@@ -113,7 +206,7 @@ class ZDSBConfigManagerTest extends StandardTest {
     }
 
     @Test
-    void botConfig() throws IOException {
+    void botConfig() throws IOException, InterruptedException {
         final ZDSBBotConfig cfg = manager.botConfig();
         final String id = "331524458806247426";
 
@@ -123,6 +216,6 @@ class ZDSBConfigManagerTest extends StandardTest {
 
         copyResource("/config_test.properties", cfg.getConfigFile());
 
-        assertFalse(cfg.isOperator(id));
+        assertReloaded("false", () -> String.valueOf(cfg.isOperator(id)));
     }
 }
\ No newline at end of file
@@ -10,6 +10,8 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -50,6 +52,7 @@ class ZDSBConfigTest extends StandardTest {
 
     @AfterEach
     void tearDown() throws IOException {
+        ConfigWriter.shared().flush();
         if (cfgDir.exists())
             FileUtils.forceDelete(cfgDir);
     }
@@ -61,6 +64,116 @@ class ZDSBConfigTest extends StandardTest {
         }
     }
 
+    @Test
+    void version() {
+        final long version = globalConfig.getVersion();
+        assertEquals(version, globalConfig.getVersion());
+        globalConfig.prefix.setValue("new.");
+        assertTrue(globalConfig.getVersion() > version);
+    }
+
+    @Test
+    void snapshots() throws InterruptedException {
+        final ZDSBConfig.Entry entry = globalConfig.prefix;
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < 50; i++) {
+                entry.setValue("v" + i);
+                globalConfig.markDirty();
+            }
+        });
+        writer.start();
+        while (writer.isAlive())
+            assertTrue(entry.getValue().equals(defaultValue) || entry.getValue().startsWith("v"));
+        writer.join();
+        assertEquals("v49", entry.getValue());
+        assertSame(entry, globalConfig.getEntries().get("prefix"));
+    }
+
+    @Test
+    void writeBehind() throws IOException {
+        final File file = globalConfig.getConfigFile();
+        final long written = file.lastModified();
+        globalConfig.prefix.setValue("a.");
+        globalConfig.prefix.setValue("b.");
+        assertEquals("b.", globalConfig.prefix.getValue());
+        assertFalse(FileUtils.readFileToString(file, StandardCharsets.UTF_8).contains("b."));
+
+        globalConfig.flush();
+        assertEquals(0, ConfigWriter.shared().getPendingCount());
+        assertTrue(FileUtils.readFileToString(file, StandardCharsets.UTF_8).contains("prefix=b."));
+        assertFalse(file.lastModified() < written);
+
+        final long flushed = file.lastModified();
+        globalConfig.markDirty();
+        assertEquals("b.", globalConfig.prefix.getValue());
+        assertEquals(flushed, file.lastModified());
+        assertArrayEquals(new String[0], cfgDir.list((dir, name) -> name.endsWith(".tmp")));
+    }
+
+    @Test
+    void subscriptions() throws InterruptedException, IOException {
+        final LinkedBlockingQueue<ConfigChange> changes = new LinkedBlockingQueue<>();
+        final ZDSBConfig.Subscription subscription = localConfig.prefix.subscribe(changes::add);
+
+        localConfig.prefix.setValue("r.");
+        localConfig.prefix.setValue("r.");
+        localConfig.default_entry_field.setValue("other");
+        assertEquals(new ConfigChange(localConfig, "prefix", defaultValue, "r."), changes.poll(1, TimeUnit.SECONDS));
+
+        localConfig.flush();
+        Thread.sleep(50);
+        FileUtils.writeStringToFile(localConfig.getConfigFile(), "prefix = //\n", StandardCharsets.UTF_8);
+        assertEquals(new ConfigChange(localConfig, "prefix", "r.", "//"), changes.poll(2, TimeUnit.SECONDS));
+
+        subscription.cancel();
+        localConfig.prefix.setValue("s.");
+        assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void inheritedSubscriptions() throws InterruptedException {
+        final TestConfig child = ZDSBConfig.newInstance(TestConfig.class, "child_config_test", cfgDir, globalConfig, null);
+        final LinkedBlockingQueue<ConfigChange> changes = new LinkedBlockingQueue<>();
+        child.subscribe(changes::add);
+
+        globalConfig.default_entry_field.setValue("global.");
+        assertEquals(new ConfigChange(child, "default_entry_field", defaultValue, "global."),
+                changes.poll(1, TimeUnit.SECONDS));
+
+        child.default_entry_field.setValue("local.");
+        assertEquals(new ConfigChange(child, "default_entry_field", "global.", "local."),
+                changes.poll(1, TimeUnit.SECONDS));
+        globalConfig.default_entry_field.setValue("global2.");
+        assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void typedValues() {
+        final ZDSBConfig.Entry entry = globalConfig.default_entry_field;
+        entry.setValue("4 * 60 * 60");
+        assertEquals(14400, entry.getInt());
+        assertEquals(14400L, entry.getLong());
+        assertEquals(14400., entry.eval());
+
+        entry.setValue("1.5");
+        assertEquals(1, entry.getInt());
+        assertEquals(1.5f, entry.geFloat());
+
+        entry.setValue("1e3");
+        assertEquals(0, entry.getInt());
+        assertEquals(1000., entry.getDouble());
+
+        entry.setValue("yes, no");
+        assertFalse(entry.isTrue());
+        assertEquals(List.of("yes", "no"), entry.toList());
+        assertEquals(0, entry.getLong());
+        assertThrows(RuntimeException.class, entry::eval);
+
+        entry.setValue(" on ");
+        assertTrue(entry.isTrue());
+        assertEquals(2. + Math.sqrt(16), ZDSBConfig.Entry.eval("2 + sqrt(2 ^ 4)"));
+    }
+
     @Test
     void getEntries() {
         HashMap<String, ZDSBConfig.Entry> entries = globalConfig.getEntries();
@@ -164,6 +277,7 @@ class ZDSBConfigTest extends StandardTest {
         assertEquals("zdsb.", createdConfig.prefix.getValue());
 
         createdConfig.prefix.setValue("r.");
+        createdConfig.flush();
         createdStr = IOUtils.toString(createdFile.toURI(), StandardCharsets.UTF_8);
 
         assertEquals("zdsb.", globalConfig.prefix.getValue());
@@ -173,13 +287,17 @@ class ZDSBConfigTest extends StandardTest {
     }
 
     @Test
-    void updateConfig() throws IOException {
+    void updateConfig() throws IOException, InterruptedException {
         assertEquals(defaultValue, localConfig.prefix.getValue());
         assertEquals(defaultValue, localConfig.default_entry_field.getValue());
         assertTrue(new File(cfgDir, "global_config_test.properties").isFile());
 
         copyConfigs();
 
+        // Picked up by ConfigWatcher asynchronously, within a second
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (!"//".equals(localConfig.prefix.getValue()) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
         assertEquals("//", localConfig.prefix.getValue());
         assertEquals(defaultValue, localConfig.default_entry_field.getValue());
     }
@@ -0,0 +1,74 @@
+package ru.zont.dsbot.core.listeners;
+
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.user.UserTypingEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ListenerIndexTest {
+
+    private static GuildListenerAdapter listener(Set<Class<? extends GenericEvent>> types) {
+        final GuildListenerAdapter mock = mock(GuildListenerAdapter.class);
+        when(mock.getTypes()).thenReturn(types);
+        return mock;
+    }
+
+    @Test
+    void resolvesSupertypes() {
+        final ListenerIndex index = new ListenerIndex();
+        final GuildListenerAdapter guildEvents = listener(Set.of(GenericGuildEvent.class));
+        final GuildListenerAdapter messages = listener(Set.of(MessageReceivedEvent.class));
+        final GuildListenerAdapter all = listener(null);
+        index.add(guildEvents);
+        index.add(messages);
+        index.add(all);
+
+        assertArrayEquals(new GuildListenerAdapter[]{guildEvents, all}, index.get(GuildReadyEvent.class));
+        assertArrayEquals(new GuildListenerAdapter[]{messages, all}, index.get(MessageReceivedEvent.class));
+        assertArrayEquals(new GuildListenerAdapter[]{all}, index.get(UserTypingEvent.class));
+    }
+
+    @Test
+    void typesReadOnceOnAdd() {
+        final ListenerIndex index = new ListenerIndex();
+        final GuildListenerAdapter messages = listener(Set.of(MessageReceivedEvent.class));
+        index.add(messages);
+
+        index.get(MessageReceivedEvent.class);
+        index.get(MessageReceivedEvent.class);
+        index.get(UserTypingEvent.class);
+
+        verify(messages, times(1)).getTypes();
+        assertEquals(0, index.get(UserTypingEvent.class).length);
+    }
+
+    @Test
+    void addInvalidatesResolved() {
+        final ListenerIndex index = new ListenerIndex();
+        assertEquals(0, index.get(MessageReceivedEvent.class).length);
+
+        final GuildListenerAdapter messages = listener(Set.of(MessageReceivedEvent.class));
+        index.add(messages);
+        assertArrayEquals(new GuildListenerAdapter[]{messages}, index.get(MessageReceivedEvent.class));
+    }
+
+    @Test
+    void clear() {
+        final ListenerIndex index = new ListenerIndex();
+        final GuildListenerAdapter messages = listener(Set.of(MessageReceivedEvent.class));
+        index.add(messages);
+        assertEquals(1, index.get(MessageReceivedEvent.class).length);
+
+        assertEquals(List.of(messages), index.clear());
+        assertTrue(index.isEmpty());
+        assertEquals(0, index.get(MessageReceivedEvent.class).length);
+    }
+}
@@ -0,0 +1,262 @@
+package ru.zont.dsbot.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class DBConnectionHandlerTest {
+    private final List<Connection> created = new ArrayList<>();
+
+    private synchronized Connection newConnection() throws SQLException {
+        final Connection connection = mock(Connection.class);
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(connection.prepareStatement(anyString())).thenAnswer(i -> mock(PreparedStatement.class));
+        created.add(connection);
+        return connection;
+    }
+
+    private DBConnectionHandler handler(int min, int max, Duration validateAfterIdle, Duration idleTimeout) throws SQLException {
+        return handler(min, max, validateAfterIdle, idleTimeout, 2);
+    }
+
+    private DBConnectionHandler handler(int min, int max, Duration validateAfterIdle, Duration idleTimeout,
+                                        int batchSize) throws SQLException {
+        return new DBConnectionHandler(this::newConnection,
+                new DBConnectionHandler.Settings(min, max, Duration.ofMillis(200), validateAfterIdle, idleTimeout, 2,
+                        new DBConnectionHandler.BatchSettings(batchSize, Duration.ofMinutes(1), 10)));
+    }
+
+    @Test
+    void boundedWithTimeout() throws Exception {
+        try (DBConnectionHandler handler = handler(1, 2, Duration.ofMinutes(1), Duration.ofMinutes(1))) {
+            assertEquals(1, handler.getIdleCount());
+            final DBConnectionHandler.Lease a = handler.borrow();
+            final DBConnectionHandler.Lease b = handler.borrow();
+            assertEquals(2, created.size());
+            assertThrows(SQLTransientConnectionException.class, handler::borrow);
+
+            final CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+                try (DBConnectionHandler.Lease lease = handler.borrow()) {
+                    return lease.getConnection();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(50);
+            final Connection returned = a.getConnection();
+            a.close();
+            a.close();
+            assertThrows(IllegalStateException.class, a::getConnection);
+            assertSame(returned, waiting.get(1, TimeUnit.SECONDS));
+            b.close();
+            assertEquals(0, handler.getBorrowedCount());
+            assertEquals(2, handler.getIdleCount());
+        }
+    }
+
+    @Test
+    void returnedOnException() throws Exception {
+        try (DBConnectionHandler handler = handler(0, 1, Duration.ofMinutes(1), Duration.ofMinutes(1))) {
+            assertThrows(IllegalStateException.class, () -> handler.withPrepStatement("SELECT 1", (DBConnectionHandler.SqlPreparedStatementSupplier) st -> {
+                throw new IllegalStateException();
+            }));
+            assertThrows(RuntimeException.class, () -> handler.withPrepStatement("SELECT 1", (DBConnectionHandler.SqlPreparedStatementSupplier) st -> {
+                throw new SQLException();
+            }));
+            assertEquals(0, handler.getBorrowedCount());
+            assertEquals(1, handler.getIdleCount());
+            assertEquals(1, created.size());
+        }
+    }
+
+    @Test
+    void validatesAfterIdle() throws Exception {
+        try (DBConnectionHandler handler = handler(0, 2, Duration.ofMillis(50), Duration.ofMinutes(1))) {
+            handler.borrow().close();
+            handler.borrow().close();
+            verify(created.get(0), never()).isValid(anyInt());
+
+            Thread.sleep(60);
+            when(created.get(0).isValid(anyInt())).thenReturn(false);
+            try (DBConnectionHandler.Lease lease = handler.borrow()) {
+                assertNotSame(created.get(0), lease.getConnection());
+            }
+            verify(created.get(0)).close();
+            assertEquals(2, created.size());
+        }
+    }
+
+    @Test
+    void validatesAfterFailure() throws Exception {
+        try (DBConnectionHandler handler = handler(0, 1, Duration.ofMinutes(1), Duration.ofMinutes(1))) {
+            final DBConnectionHandler.SqlStatementSupplier failing = st -> { throw new SQLException(); };
+            assertThrows(RuntimeException.class, () -> handler.withStatement(failing));
+            verify(created.get(0)).isValid(anyInt());
+            assertEquals(1, handler.getIdleCount());
+
+            when(created.get(0).isValid(anyInt())).thenReturn(false);
+            assertThrows(RuntimeException.class, () -> handler.withStatement(failing));
+            verify(created.get(0)).close();
+            assertEquals(0, handler.getIdleCount());
+
+            try (DBConnectionHandler.Lease lease = handler.borrow()) {
+                assertSame(created.get(1), lease.getConnection());
+            }
+            verify(created.get(1), never()).isValid(anyInt());
+        }
+    }
+
+    @Test
+    void evictsIdle() throws Exception {
+        try (DBConnectionHandler handler = handler(1, 3, Duration.ofMinutes(1), Duration.ofMillis(50))) {
+            final DBConnectionHandler.Lease a = handler.borrow();
+            final DBConnectionHandler.Lease b = handler.borrow();
+            final DBConnectionHandler.Lease c = handler.borrow();
+            a.close();
+            b.close();
+            c.close();
+            assertEquals(3, handler.getIdleCount());
+
+            Thread.sleep(60);
+            handler.evict();
+            assertEquals(1, handler.getIdleCount());
+            verify(created.get(0)).close();
+        }
+    }
+
+    @Test
+    void statementCache() throws Exception {
+        try (DBConnectionHandler handler = handler(1, 1, Duration.ofMinutes(1), Duration.ofMinutes(1))) {
+            final List<PreparedStatement> used = new ArrayList<>();
+            for (String sql: List.of("A", "B", "A", "C", "A", "B"))
+                handler.withPrepStatement(sql, (DBConnectionHandler.SqlPreparedStatementSupplier) used::add);
+            assertEquals(2, handler.getStatementCacheHits());
+            assertEquals(4, handler.getStatementCacheMisses());
+            assertSame(used.get(0), used.get(2));
+            assertSame(used.get(0), used.get(4));
+            assertNotSame(used.get(1), used.get(5));
+            verify(used.get(1)).close();
+            verify(used.get(0), atLeastOnce()).clearParameters();
+            verify(used.get(0), never()).close();
+
+            assertThrows(RuntimeException.class, () -> handler.withPrepStatement("A",
+                    (DBConnectionHandler.SqlPreparedStatementSupplier) st -> { throw new SQLException(); }));
+            verify(used.get(0)).close();
+            handler.withPrepStatement("A", (DBConnectionHandler.SqlPreparedStatementSupplier) used::add);
+            assertNotSame(used.get(0), used.get(6));
+        }
+    }
+
+    @Test
+    void leaseStatements() throws Exception {
+        try (DBConnectionHandler handler = handler(1, 1, Duration.ofMinutes(1), Duration.ofMinutes(1))) {
+            final List<PreparedStatement> held = new ArrayList<>();
+            try (DBConnectionHandler.Lease lease = handler.borrow()) {
+                for (String sql: List.of("A", "B", "C"))
+                    held.add(lease.prepareStatement(sql));
+                for (PreparedStatement st: held)
+                    verify(st, never()).close();
+            }
+            verify(held.get(0)).close();
+            verify(held.get(1), never()).close();
+            verify(held.get(2)).clearParameters();
+            verify(held.get(2)).clearBatch();
+        }
+
+        try (DBConnectionHandler handler = new DBConnectionHandler(this::newConnection,
+                DBConnectionHandler.Settings.DEFAULT.withStatementCacheSize(0))) {
+            final PreparedStatement st;
+            try (DBConnectionHandler.Lease lease = handler.borrow()) {
+                st = lease.prepareStatement("A");
+            }
+            verify(st).close();
+        }
+    }
+
+    @Test
+    void nestedStatements() throws Exception {
+        try (DBConnectionHandler handler = handler(1, 1, Duration.ofMinutes(1), Duration.ofMinutes(1))) {
+            final PreparedStatement outer;
+            final PreparedStatement inner;
+            try (DBConnectionHandler.Lease lease = handler.borrow()) {
+                outer = lease.prepareStatement("A");
+                inner = lease.prepareStatement("A");
+                assertNotSame(outer, inner);
+            }
+            verify(outer, never()).close();
+            verify(inner).close();
+
+            try (DBConnectionHandler.Lease lease = handler.borrow()) {
+                assertSame(outer, lease.prepareStatement("A"));
+            }
+        }
+    }
+
+    @Test
+    void batchedWrites() throws Exception {
+        // Batch size is never reached, so only flush() executes writes
+        try (DBConnectionHandler handler = handler(1, 1, Duration.ofMinutes(1), Duration.ofMinutes(1), 10)) {
+            final Connection con = created.get(0);
+            when(con.getAutoCommit()).thenReturn(true);
+
+            final CompletableFuture<Void> first = handler.enqueueWrite("INSERT A", 1, "a");
+            final CompletableFuture<Void> second = handler.enqueueWrite("INSERT B", 2);
+            assertEquals(2, handler.getPendingWriteCount());
+            assertEquals(2, handler.flush());
+            assertTrue(first.isDone() && second.isDone());
+            verify(con).setAutoCommit(false);
+            verify(con).commit();
+            verify(con).setAutoCommit(true);
+
+            handler.enqueueWrite("INSERT A", 3, "c");
+            assertEquals(1, handler.flush());
+            assertEquals(0, handler.getPendingWriteCount());
+            final PreparedStatement a;
+            try (DBConnectionHandler.Lease lease = handler.borrow()) {
+                a = lease.prepareStatement("INSERT A");
+            }
+            verify(a, times(2)).addBatch();
+            verify(a, times(2)).executeBatch();
+            verify(a).setObject(2, "c");
+
+            when(a.executeBatch()).thenThrow(new SQLException());
+            final CompletableFuture<Void> failed = handler.enqueueWrite("INSERT A", 4, "d");
+            assertEquals(0, handler.flush());
+            assertTrue(failed.isCompletedExceptionally());
+            verify(con).rollback();
+        }
+    }
+
+    @Test
+    void writesFlushedOnBatchSize() throws Exception {
+        try (DBConnectionHandler handler = handler(1, 1, Duration.ofMinutes(1), Duration.ofMinutes(1), 2)) {
+            final CompletableFuture<Void> first = handler.enqueueWrite("INSERT A", 1);
+            final CompletableFuture<Void> second = handler.enqueueWrite("INSERT A", 2);
+            assertNull(second.get(1, TimeUnit.SECONDS));
+            assertTrue(first.isDone());
+        }
+    }
+
+    @Test
+    void closeExecutesWrites() throws Exception {
+        final DBConnectionHandler handler = handler(1, 1, Duration.ofMinutes(1), Duration.ofMinutes(1), 10);
+        final CompletableFuture<Void> write = handler.enqueueWrite("INSERT A", 1);
+        handler.close();
+        assertTrue(write.isDone() && !write.isCompletedExceptionally());
+        assertThrows(IllegalStateException.class, () -> handler.enqueueWrite("INSERT A", 2));
+        verify(created.get(0)).close();
+    }
+}
@@ -0,0 +1,35 @@
+package ru.zont.dsbot.core.util;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Rough per-event cost of guild extraction: reflective lookup (as it was done in GuildListenerAdapter)
+ * versus {@link EventAccessor}, see {@link Microbenchmark}.
+ */
+@Tag(Microbenchmark.TAG)
+class EventAccessorBenchmark {
+
+    @Test
+    void guildOf() throws Exception {
+        final GenericEvent event = new GuildReadyEvent(mock(JDA.class), 0, mock(Guild.class));
+        new Microbenchmark(200_000, 2_000_000).run("event",
+                Microbenchmark.of("Reflection", () -> reflective(event)),
+                Microbenchmark.of("EventAccessor", () -> EventAccessor.guildOf(event)));
+    }
+
+    private static Object reflective(GenericEvent event) throws Exception {
+        final Class<?> clazz = event.getClass();
+        if (Arrays.stream(clazz.getMethods()).noneMatch(m -> "getGuild".equals(m.getName())))
+            return null;
+        return clazz.getMethod("getGuild").invoke(event);
+    }
+}
@@ -0,0 +1,51 @@
+package ru.zont.dsbot.core.util;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.events.ReadyEvent;
+import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EventAccessorTest {
+    private final JDA jda = mock(JDA.class);
+
+    @Test
+    void guildEvent() {
+        final Guild guild = mock(Guild.class);
+        final GuildReadyEvent event = new GuildReadyEvent(jda, 0, guild);
+
+        final EventAccessor accessor = EventAccessor.of(event);
+        assertTrue(accessor.hasGuild());
+        assertSame(guild, accessor.getGuild(event));
+        assertNull(accessor.getMessage(event));
+        assertSame(accessor, EventAccessor.of(GuildReadyEvent.class));
+    }
+
+    @Test
+    void privateMessageEvent() {
+        final MessageChannel channel = mock(MessageChannel.class);
+        when(channel.getType()).thenReturn(ChannelType.PRIVATE);
+        final Message message = mock(Message.class);
+        when(message.getChannel()).thenReturn(channel);
+        final MessageReceivedEvent event = new MessageReceivedEvent(jda, 0, message);
+
+        final EventAccessor accessor = EventAccessor.of(event);
+        assertTrue(accessor.hasGuild());
+        assertNull(accessor.getGuild(event));
+        assertSame(message, accessor.getMessage(event));
+        assertSame(channel, accessor.getChannel(event));
+    }
+
+    @Test
+    void noGuildEvent() {
+        final EventAccessor accessor = EventAccessor.of(ReadyEvent.class);
+        assertFalse(accessor.hasGuild());
+    }
+}
@@ -0,0 +1,65 @@
+package ru.zont.dsbot.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstanceStoreTest {
+
+    @Test
+    void createdOnce() throws Exception {
+        final InstanceStore store = new InstanceStore();
+        final AtomicInteger created = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<StringBuilder>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return store.get(StringBuilder.class, () -> {
+                        created.incrementAndGet();
+                        return new StringBuilder();
+                    });
+                }));
+            }
+            start.countDown();
+            final StringBuilder first = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<StringBuilder> future: futures)
+                assertSame(first, future.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, created.get());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void nestedAndNull() {
+        final InstanceStore store = new InstanceStore();
+        assertNull(store.get("null", () -> null));
+        assertEquals(0, store.size());
+        assertEquals("outer inner", store.get("outer", () -> "outer " + store.get("inner", () -> "inner")));
+        assertEquals("inner", store.get("inner", () -> "other"));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void release() {
+        final InstanceStore store = new InstanceStore();
+        final AtomicBoolean closed = new AtomicBoolean();
+        store.get(AutoCloseable.class, () -> () -> closed.set(true));
+        store.get("value", () -> "value");
+        store.release();
+        assertTrue(closed.get());
+        assertTrue(store.isReleased());
+        assertEquals(0, store.size());
+        assertThrows(IllegalStateException.class, () -> store.get("value", () -> "value"));
+    }
+}
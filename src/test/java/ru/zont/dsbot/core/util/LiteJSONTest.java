@@ -0,0 +1,191 @@
+package ru.zont.dsbot.core.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiteJSONTest {
+    /**
+     * Documents stay in memory while referenced, so every test uses its own files
+     */
+    private String name;
+    private File file;
+    private String journaledName;
+    private File journaledFile;
+    private File journal;
+
+    @BeforeEach
+    void setUp(TestInfo info) {
+        name = "lite-json-" + info.getTestMethod().orElseThrow().getName();
+        file = new File("data/%s.json".formatted(name));
+        journaledName = name + "-journal";
+        journaledFile = new File("data/%s.json".formatted(journaledName));
+        journal = new File("data/%s.json.log".formatted(journaledName));
+    }
+
+    @AfterEach
+    void tearDown() {
+        LiteJSON.flushAll();
+        for (String n: List.of(name, journaledName, journaledName + "-copy")) {
+            FileUtils.deleteQuietly(new File("data/%s.json".formatted(n)));
+            FileUtils.deleteQuietly(new File("data/%s.json.log".formatted(n)));
+        }
+    }
+
+    @Test
+    void writeBehind() throws IOException {
+        final LiteJSON json = new LiteJSON(name);
+        json.addIfNotContains("a");
+        json.addIfNotContains("b");
+        json.addIfNotContains("a");
+        json.op(o -> { o.addProperty("key", "value"); });
+
+        assertEquals(List.of("a", "b"), new LiteJSON(name).getList());
+        assertEquals("value", new LiteJSON(name).get().get("key").getAsString());
+        assertFalse(file.exists());
+
+        json.flush();
+        final String text = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        assertTrue(text.contains("\"key\":\"value\""), text);
+        assertTrue(text.contains("\"b\""), text);
+    }
+
+    @Test
+    void getReturnsCopy() {
+        final LiteJSON json = new LiteJSON(name);
+        json.opList(a -> { a.add("a"); });
+        json.get().add("key", new JsonPrimitive("value"));
+        json.get().getAsJsonArray("list").add("b");
+        assertFalse(json.get().has("key"));
+        assertEquals(List.of("a"), json.getList());
+    }
+
+    @Test
+    void failedOpIsWritten() throws IOException {
+        final LiteJSON json = new LiteJSON(name);
+        assertThrows(IllegalStateException.class, () -> json.op((Consumer<JsonObject>) o -> {
+            o.addProperty("key", "value");
+            throw new IllegalStateException();
+        }));
+        json.flush();
+        assertTrue(FileUtils.readFileToString(file, StandardCharsets.UTF_8).contains("\"key\":\"value\""));
+    }
+
+    @Test
+    void failedFlushRetried() throws Exception {
+        final LiteJSON json = new LiteJSON(name);
+        json.op(o -> { o.addProperty("key", "value"); });
+        // A non-empty directory in place of the file makes the write fail
+        assertTrue(new File(file, "blocker").mkdirs());
+        json.flush();
+        assertFalse(file.isFile());
+
+        FileUtils.deleteDirectory(file);
+        for (int i = 0; i < 40 && !file.isFile(); i++)
+            Thread.sleep(50);
+        assertTrue(FileUtils.readFileToString(file, StandardCharsets.UTF_8).contains("\"key\":\"value\""));
+    }
+
+    @Test
+    void journal() throws IOException {
+        final LiteJSON json = LiteJSON.journaled(journaledName);
+        json.addIfNotContains("a");
+        json.addIfNotContains("b");
+        json.opList("other", a -> { a.add(1); });
+        json.flush();
+
+        assertFalse(journaledFile.exists());
+        final List<String> records = FileUtils.readLines(journal, StandardCharsets.UTF_8);
+        assertEquals(List.of(
+                "{\"set\":\"other\",\"value\":[1]}",
+                "{\"add\":\"list\",\"value\":\"a\"}",
+                "{\"add\":\"list\",\"value\":\"b\"}"), records);
+
+        json.op(o -> { o.addProperty("key", "value"); });
+        json.addIfNotContains("c");
+        json.flush();
+        FileUtils.writeStringToFile(journal, "{\"add\":\"li", StandardCharsets.UTF_8, true);
+
+        assertEquals(List.of("a", "b", "c"), replayed(journaledName).getList());
+        assertEquals("value", replayed(journaledName).get().get("key").getAsString());
+        assertThrows(IllegalStateException.class, () -> new LiteJSON(journaledName));
+    }
+
+    @Test
+    void journalCompaction() {
+        final LiteJSON json = LiteJSON.journaled(journaledName);
+        final String value = "x".repeat(1000);
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            json.opList("values", a -> { a.add(value + n); });
+            json.flush();
+        }
+        assertTrue(journaledFile.exists());
+        assertTrue(journal.length() < journaledFile.length(), journal.length() + " vs " + journaledFile.length());
+        assertEquals(100, replayed(journaledName).getList("values").size());
+    }
+
+    /**
+     * Load the document from disk again, as another process would
+     */
+    private static LiteJSON replayed(String name) {
+        final String copy = name + "-copy";
+        try {
+            FileUtils.deleteQuietly(new File("data/%s.json".formatted(copy)));
+            FileUtils.deleteQuietly(new File("data/%s.json.log".formatted(copy)));
+            final File src = new File("data/%s.json".formatted(name));
+            if (src.exists()) FileUtils.copyFile(src, new File("data/%s.json".formatted(copy)));
+            FileUtils.copyFile(new File("data/%s.json.log".formatted(name)), new File("data/%s.json.log".formatted(copy)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return LiteJSON.journaled(copy);
+    }
+
+    @Test
+    void indexedList() {
+        final LiteJSON json = new LiteJSON(name);
+        json.addIfNotContains("a");
+        json.addIfNotContains("a");
+        assertTrue(json.listContains("a"));
+        json.opList(a -> { a.remove(0); a.add(5); });
+        assertFalse(json.listContains("a"));
+        assertTrue(json.listContains("5"));
+        json.addIfNotContains("5");
+        json.addIfNotContains("a");
+        assertEquals(List.of("5", "a"), json.getList());
+    }
+
+    @Test
+    void forEachInList() throws IOException {
+        FileUtils.writeStringToFile(file, "{\"skip\":{\"list\":[0]},\"list\":[\"a\",{\"b\":1},2],\"after\":[]}", StandardCharsets.UTF_8);
+        final List<JsonElement> streamed = new ArrayList<>();
+        new LiteJSON(name).forEachInList(streamed::add);
+        assertEquals(List.of(new JsonPrimitive("a"), JsonParser.parseString("{\"b\":1}"), new JsonPrimitive(2)), streamed);
+
+        final LiteJSON json = new LiteJSON(name);
+        json.addIfNotContains("c");
+        final List<JsonElement> loaded = new ArrayList<>();
+        json.forEachInList(loaded::add);
+        assertEquals(4, loaded.size());
+
+        final List<JsonElement> missing = new ArrayList<>();
+        json.forEachInList("missing", missing::add);
+        assertTrue(missing.isEmpty());
+    }
+}
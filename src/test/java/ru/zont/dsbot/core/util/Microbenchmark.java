@@ -0,0 +1,52 @@
+package ru.zont.dsbot.core.util;
+
+/**
+ * Rough timing of small operations for the benchmarks tagged {@value #TAG}, which are excluded from
+ * {@code gradle test} and run by {@code gradle benchmark}. Results are only good for comparing
+ * alternatives measured in the same run.
+ */
+public final class Microbenchmark {
+    public static final String TAG = "benchmark";
+    private static final int ROUNDS = 3;
+
+    private final int warmup;
+    private final int iterations;
+
+    public Microbenchmark(int warmup, int iterations) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Print average cost of every operation, {@value #ROUNDS} times over, so the later rounds show the warmed up JIT
+     */
+    public void run(String unit, Case... cases) throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Case c: cases)
+                System.out.printf("%-24s %9.1f ns/%s%n", c.name() + ":", measure(c.op()), unit);
+        }
+    }
+
+    private double measure(Op op) throws Exception {
+        Object sink = null;
+        for (int i = 0; i < warmup; i++) sink = op.run();
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink = op.run();
+        final long took = System.nanoTime() - start;
+        if (sink == null) System.out.print("");
+        return (double) took / iterations;
+    }
+
+    public static Case of(String name, Op op) {
+        return new Case(name, op);
+    }
+
+    public record Case(String name, Op op) { }
+
+    public interface Op {
+        /**
+         * @return anything derived from the work done, so it is not optimized away
+         */
+        Object run() throws Exception;
+    }
+}
@@ -0,0 +1,39 @@
+package ru.zont.dsbot.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnowflakeSetTest {
+
+    @Test
+    void of() {
+        final SnowflakeSet set = SnowflakeSet.of(List.of("331524458806247426", "1337", "abc", "", "1337", "-5"));
+        assertEquals(2, set.size());
+        assertTrue(set.contains(331524458806247426L));
+        assertTrue(set.contains("1337"));
+        assertFalse(set.contains("133"));
+        assertFalse(set.contains("abc"));
+        assertFalse(set.contains((String) null));
+        assertSame(SnowflakeSet.EMPTY, SnowflakeSet.of(List.of()));
+    }
+
+    @Test
+    void parse() {
+        assertEquals(Long.MAX_VALUE, SnowflakeSet.parse(Long.toString(Long.MAX_VALUE)));
+        assertEquals(-1, SnowflakeSet.parse("9223372036854775808"));
+        assertEquals(-1, SnowflakeSet.parse("12 "));
+        assertEquals(0, SnowflakeSet.parse("0"));
+    }
+
+    @Test
+    void with() {
+        final SnowflakeSet set = SnowflakeSet.of(3, 1);
+        assertSame(set, set.with(3));
+        assertSame(set, set.with(-1));
+        assertArrayEquals(new long[]{1, 2, 3}, set.with(2).toArray());
+        assertArrayEquals(new long[]{1, 3}, set.toArray());
+    }
+}